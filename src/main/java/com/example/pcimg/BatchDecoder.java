@@ -0,0 +1,337 @@
+package com.example.pcimg;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reconstructs many {@link EncodedImage}s, from separate files or an {@link EncodedArchive}, into PNG files.
+ * <p>
+ * The calling thread reads the encoded images in order and collects them into micro-batches. The
+ * coefficients of a batch are dequantized into one matrix and reconstructed with a single
+ * {@link PCA#decode(Matrix)}, so the multiply by the transposed components runs once per batch on the
+ * compute pool rather than once per image. The reconstructed rows are then handed to a pool of threads that build
+ * the images and write the PNGs, which is usually the slowest part. Every image holds a permit from
+ * the time it is read until its PNG is written, so at most {@link #setMaxInFlight(int)} images are in
+ * memory and reading waits whenever the writers fall behind.
+ * </p>
+ * <p>
+ * Images that are corrupt, encoded with a different model or of a size the model does not produce are
+ * skipped and listed in the {@link BatchReport}; an error writing a PNG stops the run.
+ * </p>
+ */
+public final class BatchDecoder {
+
+    /** Default number of images reconstructed with one multiply. */
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    private final PCA model;
+    private final long modelId;
+    private int writerThreads = Runtime.getRuntime().availableProcessors();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxInFlight = 4 * DEFAULT_BATCH_SIZE;
+
+    /**
+     * Creates a decoder for a fitted model. By default one PNG writer runs per processor and up to
+     * four default batches of images are in flight.
+     *
+     * @param model the model the images were encoded with
+     * @throws IllegalArgumentException if the model has not been fitted
+     */
+    public BatchDecoder(PCA model) {
+        if (model.v == null || model.avg == null) {
+            throw new IllegalArgumentException("Model has not been fitted");
+        }
+        this.model = model;
+        this.modelId = model.getModelId();
+    }
+
+    /**
+     * Sets the number of threads building and writing the PNG files.
+     *
+     * @param threads the thread count; must be positive
+     * @return this decoder
+     */
+    public BatchDecoder setWriterThreads(int threads) {
+        this.writerThreads = positive(threads, "Writer threads");
+        return this;
+    }
+
+    /**
+     * Sets the number of images reconstructed with one multiply.
+     *
+     * @param size the batch size; must be positive
+     * @return this decoder
+     */
+    public BatchDecoder setBatchSize(int size) {
+        this.batchSize = positive(size, "Batch size");
+        return this;
+    }
+
+    /**
+     * Sets the largest number of images read but not yet written. Values below the batch size are
+     * raised to it.
+     *
+     * @param images the image count; must be positive
+     * @return this decoder
+     */
+    public BatchDecoder setMaxInFlight(int images) {
+        this.maxInFlight = positive(images, "Images in flight");
+        return this;
+    }
+
+    private static int positive(int value, String name) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Decodes separate encoded image files. Each PNG is named after its file, with the extension
+     * replaced by {@code .png}.
+     *
+     * @param files     the encoded image files
+     * @param outputDir the directory receiving the PNGs; created if missing
+     * @return the throughput and latency report
+     * @throws IOException          if a PNG cannot be written
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public BatchReport decodeFiles(List<Path> files, String outputDir) throws IOException, InterruptedException {
+        List<String> names = new ArrayList<>(files.size());
+        for (Path file : files) {
+            names.add(file.getFileName().toString());
+        }
+        return run(files.size(), i -> EncodedImage.loadFromFile(files.get(i).toString()), names, outputDir);
+    }
+
+    /**
+     * Decodes every image of an archive. When the archive has a {@link BatchEncoder} manifest, each PNG
+     * is named after the source image (with the id appended if two sources share a name); otherwise
+     * after its id.
+     *
+     * @param archive   the path of the archive
+     * @param outputDir the directory receiving the PNGs; created if missing
+     * @return the throughput and latency report
+     * @throws IOException          if the archive cannot be read or a PNG cannot be written
+     * @throws InterruptedException if the calling thread is interrupted
+     * @throws IllegalArgumentException if the archive was encoded with a different model
+     */
+    public BatchReport decodeArchive(String archive, String outputDir) throws IOException, InterruptedException {
+        EncodedArchive.Reader reader = EncodedArchive.open(archive);
+        if (reader.getModelId() != modelId) {
+            throw new IllegalArgumentException("Archive was encoded with a different model ("
+                    + Long.toHexString(reader.getModelId()) + ", not " + Long.toHexString(modelId) + ")");
+        }
+        Path manifest = Paths.get(archive + BatchEncoder.MANIFEST_EXTENSION);
+        List<String> names = new ArrayList<>(reader.size());
+        if (Files.isRegularFile(manifest)) {
+            for (String line : Files.readAllLines(manifest)) {
+                names.add(Paths.get(line).getFileName().toString());
+            }
+        }
+        if (names.size() != reader.size()) {
+            names.clear();
+            for (int id = 0; id < reader.size(); id++) {
+                names.add(String.format(Locale.ROOT, "%08d", id));
+            }
+        }
+        return run(reader.size(), reader::get, names, outputDir);
+    }
+
+    /**
+     * Supplies the encoded image with a given position in the input.
+     */
+    @FunctionalInterface
+    private interface Source {
+        EncodedImage read(int index) throws IOException;
+    }
+
+    private BatchReport run(int count, Source source, List<String> names, String outputDir)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Path dir = Files.createDirectories(Paths.get(outputDir));
+        List<Path> outputs = pngPaths(dir, names);
+        int features = model.avg.getWidth();
+        BatchReport.Stage read = new BatchReport.Stage("read", 1);
+        BatchReport.Stage reconstruct = new BatchReport.Stage("reconstruct", 1);
+        BatchReport.Stage png = new BatchReport.Stage("png", writerThreads);
+        BatchReport.Stage total = new BatchReport.Stage("end-to-end", 0);
+        List<String> skipped = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger written = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Semaphore inFlight = new Semaphore(Math.max(maxInFlight, batchSize));
+        ExecutorService writers = Executors.newFixedThreadPool(writerThreads, r -> {
+            Thread thread = new Thread(r, "pcimg-png-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<EncodedImage> batch = new ArrayList<>(batchSize);
+            List<Integer> indices = new ArrayList<>(batchSize);
+            long[] started = new long[batchSize];
+            for (int index = 0; index < count && failure.get() == null; index++) {
+                inFlight.acquire();
+                long t = System.nanoTime();
+                String error = null;
+                EncodedImage image = null;
+                try {
+                    image = source.read(index);
+                    if (image.getModelId() != modelId) {
+                        error = "encoded with a different model";
+                    } else if (image.getHeight() == 0 || image.getWidth() == 0
+                            || image.getComponents() == 0 || 3L * image.getWidth() * image.getHeight() != features) {
+                        error = "image is " + image.getWidth() + "x" + image.getHeight() + " but the model produces "
+                                + features + " features";
+                    }
+                } catch (IOException e) {
+                    error = e.getMessage();
+                }
+                read.record(System.nanoTime() - t, 1);
+                if (error != null) {
+                    skipped.add(names.get(index) + ": " + error);
+                    inFlight.release();
+                    continue;
+                }
+                started[batch.size()] = t;
+                batch.add(image);
+                indices.add(index);
+                if (batch.size() == batchSize || index == count - 1) {
+                    submit(batch, indices, started, outputs, writers, inFlight, reconstruct, png, total,
+                            written, failure);
+                    batch.clear();
+                    indices.clear();
+                }
+            }
+            if (!batch.isEmpty() && failure.get() == null) {
+                submit(batch, indices, started, outputs, writers, inFlight, reconstruct, png, total,
+                        written, failure);
+            }
+            writers.shutdown();
+            writers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            writers.shutdownNow();
+        }
+        Throwable error = failure.get();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        }
+        return new BatchReport("Decoded", written.get(), new ArrayList<>(skipped), System.nanoTime() - start,
+                List.of(read, reconstruct, png, total));
+    }
+
+    /**
+     * Reconstructs a batch with one multiply and queues its images for writing.
+     */
+    private void submit(List<EncodedImage> batch, List<Integer> indices, long[] started, List<Path> outputs,
+                        ExecutorService writers, Semaphore inFlight, BatchReport.Stage reconstruct,
+                        BatchReport.Stage png, BatchReport.Stage total, AtomicInteger written,
+                        AtomicReference<Throwable> failure) {
+        long t = System.nanoTime();
+        int rows = batch.size();
+        int k = model.v.getWidth();
+        double[] coefficients = new double[rows * k];
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(batch.get(r).dequantize(model, modelId).toRowMajorArray(), 0, coefficients, r * k, k);
+        }
+        Matrix decoded = model.decode(new Matrix(rows, k, coefficients));
+        int features = decoded.getWidth();
+        reconstruct.record(System.nanoTime() - t, rows);
+        for (int r = 0; r < rows; r++) {
+            Matrix row = decoded.getSubMatrix(r, 1, 0, features);
+            int width = batch.get(r).getWidth();
+            int height = batch.get(r).getHeight();
+            Path output = outputs.get(indices.get(r));
+            long imageStarted = started[r];
+            writers.execute(() -> {
+                try {
+                    if (failure.get() != null) {
+                        return;
+                    }
+                    long w = System.nanoTime();
+                    BufferedImage image = ImageUtils.rowMatrixToImage(row, width, height);
+                    ImageIO.write(image, "png", output.toFile());
+                    long now = System.nanoTime();
+                    png.record(now - w, 1);
+                    total.record(now - imageStarted, 1);
+                    written.incrementAndGet();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Names the PNG of every input after its name without extension, appending the input position to
+     * names that occur more than once.
+     */
+    private static List<Path> pngPaths(Path dir, List<String> names) {
+        Set<String> seen = new HashSet<>();
+        Set<String> repeated = new HashSet<>();
+        List<String> stems = new ArrayList<>(names.size());
+        for (String name : names) {
+            int dot = name.lastIndexOf('.');
+            String stem = dot > 0 ? name.substring(0, dot) : name;
+            stems.add(stem);
+            if (!seen.add(stem)) {
+                repeated.add(stem);
+            }
+        }
+        List<Path> paths = new ArrayList<>(names.size());
+        for (int i = 0; i < stems.size(); i++) {
+            String stem = stems.get(i);
+            paths.add(dir.resolve(repeated.contains(stem) ? stem + "-" + i + ".png" : stem + ".png"));
+        }
+        return paths;
+    }
+
+    /**
+     * Decodes from the command line: {@code BatchDecoder <model> <archive|encoded files...> <output dir>}.
+     * A single input holding an {@link EncodedArchive} is decoded as an archive; otherwise every input
+     * is an encoded image file.
+     *
+     * @param args the command-line arguments
+     * @throws Exception if the model cannot be loaded or the images cannot be decoded
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: BatchDecoder <model> <archive|encoded files...> <output dir>");
+            return;
+        }
+        BatchDecoder decoder = new BatchDecoder(PCA.loadFromFile(args[0]));
+        String outputDir = args[args.length - 1];
+        BatchReport report;
+        if (args.length == 3 && !EncodedImage.isEncodedImage(args[1])) {
+            report = decoder.decodeArchive(args[1], outputDir);
+        } else {
+            List<Path> files = new ArrayList<>();
+            for (int i = 1; i < args.length - 1; i++) {
+                files.add(Paths.get(args[i]));
+            }
+            report = decoder.decodeFiles(files, outputDir);
+        }
+        System.out.print(report);
+    }
+}
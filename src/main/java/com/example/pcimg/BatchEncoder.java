@@ -0,0 +1,482 @@
+package com.example.pcimg;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Encodes many images into one {@link EncodedArchive} with a pipeline of concurrent stages.
+ * <p>
+ * The stages are connected by bounded queues: decoder threads read the image files with {@link ImageIO},
+ * extractor threads turn the images into RGB row vectors, a projector packs the vectors waiting in its
+ * queue into one matrix and encodes the whole batch with a single multiply against the model before
+ * quantizing it, and a writer appends the results to the archive in input order. A stage that falls
+ * behind fills the queue in front of it, which blocks the stages upstream, and the number of images in
+ * flight is capped, so memory stays bounded however many images there are.
+ * </p>
+ * <p>
+ * Images that cannot be read or whose size does not match the model are skipped and listed in the
+ * {@link BatchReport}; an error writing the archive stops the whole pipeline. Archive ids follow the input
+ * order without the skipped images, and the source path of every id is written one per line to a
+ * manifest next to the archive, named after it with {@value #MANIFEST_EXTENSION} appended.
+ * </p>
+ */
+public final class BatchEncoder {
+
+    /** Suffix appended to the archive name to name its manifest. */
+    public static final String MANIFEST_EXTENSION = ".txt";
+
+    /** Default number of images projected with one multiply. */
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    /** Default capacity of the queues between the stages. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    /** File suffixes picked up when a directory is listed. */
+    private static final List<String> IMAGE_SUFFIXES = List.of(".png", ".jpg", ".jpeg", ".bmp", ".gif");
+
+    private final PCA model;
+    private final long modelId;
+    private int decoderThreads;
+    private int extractorThreads;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private EncodedImage.Quantization quantization = EncodedImage.Quantization.INT8;
+    private boolean entropyCoding = true;
+
+    /**
+     * Creates an encoder for a fitted model. By default one decoder runs per processor and one
+     * extractor per two processors, and the coefficients are stored as entropy-coded 8-bit values.
+     *
+     * @param model the fitted model
+     * @throws IllegalArgumentException if the model has not been fitted
+     */
+    public BatchEncoder(PCA model) {
+        if (model.v == null || model.avg == null) {
+            throw new IllegalArgumentException("Model has not been fitted");
+        }
+        this.model = model;
+        this.modelId = model.getModelId();
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.decoderThreads = processors;
+        this.extractorThreads = Math.max(1, processors / 2);
+    }
+
+    /**
+     * Sets the number of threads reading image files.
+     *
+     * @param threads the thread count; must be positive
+     * @return this encoder
+     */
+    public BatchEncoder setDecoderThreads(int threads) {
+        this.decoderThreads = positive(threads, "Decoder threads");
+        return this;
+    }
+
+    /**
+     * Sets the number of threads converting images to row vectors.
+     *
+     * @param threads the thread count; must be positive
+     * @return this encoder
+     */
+    public BatchEncoder setExtractorThreads(int threads) {
+        this.extractorThreads = positive(threads, "Extractor threads");
+        return this;
+    }
+
+    /**
+     * Sets the largest number of images projected with one multiply. Smaller batches are projected
+     * when fewer images are waiting, so a slow upstream stage never stalls the projector.
+     *
+     * @param size the batch size; must be positive
+     * @return this encoder
+     */
+    public BatchEncoder setBatchSize(int size) {
+        this.batchSize = positive(size, "Batch size");
+        return this;
+    }
+
+    /**
+     * Sets the capacity of the queues between the stages.
+     *
+     * @param capacity the number of images each queue holds; must be positive
+     * @return this encoder
+     */
+    public BatchEncoder setQueueCapacity(int capacity) {
+        this.queueCapacity = positive(capacity, "Queue capacity");
+        return this;
+    }
+
+    /**
+     * Sets how the coefficients are stored.
+     *
+     * @param quantization  the integer width of the stored coefficients
+     * @param entropyCoding whether to entropy code them with {@link CoefficientCoder}
+     * @return this encoder
+     */
+    public BatchEncoder setQuantization(EncodedImage.Quantization quantization, boolean entropyCoding) {
+        this.quantization = quantization;
+        this.entropyCoding = entropyCoding;
+        return this;
+    }
+
+    private static int positive(int value, String name) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Lists the images to encode. A directory yields its image files; a pattern containing one of
+     * the characters <code>*?[&#123;</code> is a glob matched against the paths below its last
+     * wildcard-free directory, such as {@code photos/*.png} or {@code photos/**.jpg}. The result is sorted.
+     *
+     * @param directoryOrGlob a directory or a glob pattern
+     * @return the matching files
+     * @throws IOException if the directory cannot be listed
+     */
+    public static List<Path> listImages(String directoryOrGlob) throws IOException {
+        int wildcard = -1;
+        for (int i = 0; i < directoryOrGlob.length() && wildcard < 0; i++) {
+            if ("*?[{".indexOf(directoryOrGlob.charAt(i)) >= 0) {
+                wildcard = i;
+            }
+        }
+        Path base;
+        PathMatcher matcher;
+        int depth;
+        if (wildcard < 0) {
+            base = Paths.get(directoryOrGlob);
+            if (!Files.isDirectory(base)) {
+                throw new IOException("Not a directory: " + directoryOrGlob);
+            }
+            matcher = p -> {
+                String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+                return IMAGE_SUFFIXES.stream().anyMatch(name::endsWith);
+            };
+            depth = 1;
+        } else {
+            int slash = Math.max(directoryOrGlob.lastIndexOf('/', wildcard),
+                    directoryOrGlob.lastIndexOf(File.separatorChar, wildcard));
+            base = Paths.get(slash < 0 ? "." : directoryOrGlob.substring(0, slash + 1));
+            String glob = directoryOrGlob.substring(slash + 1);
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            depth = glob.contains("**") ? Integer.MAX_VALUE : 1 + (int) glob.chars().filter(c -> c == '/').count();
+        }
+        Path root = base;
+        try (Stream<Path> files = Files.walk(root, depth)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(p -> matcher.matches(root.relativize(p)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Encodes the images matched by {@link #listImages(String)} into a new archive.
+     *
+     * @param directoryOrGlob a directory or a glob pattern
+     * @param archive         the path of the archive to create
+     * @return the throughput and latency report
+     * @throws IOException          if the images cannot be listed or the archive cannot be written
+     * @throws InterruptedException if the calling thread is interrupted; the pipeline is stopped
+     */
+    public BatchReport encode(String directoryOrGlob, String archive) throws IOException, InterruptedException {
+        return encode(listImages(directoryOrGlob), archive);
+    }
+
+    /**
+     * Encodes images into a new archive, replacing any existing file, and writes its manifest.
+     *
+     * @param images  the image files, in the order of their archive ids
+     * @param archive the path of the archive to create
+     * @return the throughput and latency report
+     * @throws IOException          if the archive cannot be written
+     * @throws InterruptedException if the calling thread is interrupted; the pipeline is stopped
+     */
+    public BatchReport encode(List<Path> images, String archive) throws IOException, InterruptedException {
+        return new Pipeline(images, archive).run();
+    }
+
+    /**
+     * One image moving through the pipeline. Each stage drops what the next one no longer needs.
+     */
+    private static final class Item {
+        final int index;
+        final Path path;
+        long started;
+        BufferedImage image;
+        int width;
+        int height;
+        double[] pixels;
+        EncodedImage encoded;
+        String error;
+
+        Item(int index, Path path) {
+            this.index = index;
+            this.path = path;
+        }
+    }
+
+    /** Marks the end of a queue; every consumer of the queue receives one. */
+    private static final Item END = new Item(-1, null);
+
+    /**
+     * The state of one {@link #encode(List, String)} call.
+     */
+    private final class Pipeline {
+        private final List<Path> images;
+        private final String archive;
+        private final int features = model.avg.getWidth();
+        private final BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<Item> extracted = new ArrayBlockingQueue<>(Math.max(queueCapacity, batchSize));
+        private final BlockingQueue<Item> projected = new ArrayBlockingQueue<>(Math.max(queueCapacity, batchSize));
+        /**
+         * Images read but not yet written. The writer waits for images in input order and holds later
+         * ones meanwhile; this bounds how many it may hold.
+         */
+        private final Semaphore inFlight = new Semaphore(
+                decoderThreads + extractorThreads + 3 * Math.max(queueCapacity, batchSize) + batchSize);
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger decodersLeft = new AtomicInteger(decoderThreads);
+        private final AtomicInteger extractorsLeft = new AtomicInteger(extractorThreads);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final List<Thread> threads = new ArrayList<>();
+        private final BatchReport.Stage decode = new BatchReport.Stage("decode", decoderThreads);
+        private final BatchReport.Stage extract = new BatchReport.Stage("extract", extractorThreads);
+        private final BatchReport.Stage project = new BatchReport.Stage("project", 1);
+        private final BatchReport.Stage write = new BatchReport.Stage("write", 1);
+        private final BatchReport.Stage total = new BatchReport.Stage("end-to-end", 0);
+        private final List<String> skipped = Collections.synchronizedList(new ArrayList<>());
+        private int written;
+
+        Pipeline(List<Path> images, String archive) {
+            this.images = images;
+            this.archive = archive;
+        }
+
+        BatchReport run() throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            for (int i = 0; i < decoderThreads; i++) {
+                start("decoder-" + i, this::decode);
+            }
+            for (int i = 0; i < extractorThreads; i++) {
+                start("extractor-" + i, this::extract);
+            }
+            start("projector", this::project);
+            start("writer", this::write);
+            threads.forEach(Thread::start);
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                threads.forEach(Thread::interrupt);
+                throw e;
+            }
+            Throwable error = failure.get();
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else if (error != null) {
+                throw new IOException(error);
+            }
+            return new BatchReport("Encoded", written, new ArrayList<>(skipped), System.nanoTime() - start,
+                    List.of(decode, extract, project, write, total));
+        }
+
+        private void start(String name, Task task) {
+            Thread thread = new Thread(() -> {
+                try {
+                    task.run();
+                } catch (InterruptedException e) {
+                    // Stopped because another stage failed.
+                } catch (Throwable e) {
+                    if (failure.compareAndSet(null, e)) {
+                        threads.forEach(Thread::interrupt);
+                    }
+                }
+            }, "pcimg-encode-" + name);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+
+        private void decode() throws InterruptedException {
+            while (true) {
+                inFlight.acquire();
+                int index = next.getAndIncrement();
+                if (index >= images.size()) {
+                    inFlight.release();
+                    break;
+                }
+                Item item = new Item(index, images.get(index));
+                item.started = System.nanoTime();
+                try {
+                    item.image = ImageIO.read(item.path.toFile());
+                    if (item.image == null) {
+                        item.error = "unsupported image format";
+                    }
+                } catch (IOException e) {
+                    item.error = e.getMessage();
+                }
+                decode.record(System.nanoTime() - item.started, 1);
+                decoded.put(item);
+            }
+            if (decodersLeft.decrementAndGet() == 0) {
+                for (int i = 0; i < extractorThreads; i++) {
+                    decoded.put(END);
+                }
+            }
+        }
+
+        private void extract() throws InterruptedException {
+            for (Item item = decoded.take(); item != END; item = decoded.take()) {
+                if (item.error == null) {
+                    long t = System.nanoTime();
+                    item.width = item.image.getWidth();
+                    item.height = item.image.getHeight();
+                    if (3L * item.width * item.height != features) {
+                        item.error = "image is " + item.width + "x" + item.height + " but the model expects "
+                                + features + " features";
+                    } else {
+                        item.pixels = ImageUtils.rgbPlanes(item.image);
+                    }
+                    item.image = null;
+                    extract.record(System.nanoTime() - t, 1);
+                }
+                extracted.put(item);
+            }
+            if (extractorsLeft.decrementAndGet() == 0) {
+                extracted.put(END);
+            }
+        }
+
+        private void project() throws InterruptedException {
+            List<Item> batch = new ArrayList<>(batchSize);
+            boolean done = false;
+            while (!done) {
+                batch.add(extracted.take());
+                extracted.drainTo(batch, batchSize - 1);
+                if (batch.get(batch.size() - 1) == END) {
+                    batch.remove(batch.size() - 1);
+                    done = true;
+                }
+                project(batch);
+                for (Item item : batch) {
+                    projected.put(item);
+                }
+                batch.clear();
+            }
+            projected.put(END);
+        }
+
+        /**
+         * Encodes the readable images of a batch with one multiply, then quantizes them in parallel.
+         */
+        private void project(List<Item> batch) {
+            List<Item> valid = batch.stream().filter(item -> item.error == null).collect(Collectors.toList());
+            if (valid.isEmpty()) {
+                return;
+            }
+            long t = System.nanoTime();
+            int rows = valid.size();
+            double[] packed = new double[Math.multiplyExact(rows, features)];
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(valid.get(r).pixels, 0, packed, r * features, features);
+                valid.get(r).pixels = null;
+            }
+            Matrix coefficients = model.encode(new Matrix(rows, features, packed));
+            int k = coefficients.getWidth();
+            ComputePool.parallelFor(0, rows, 64L * k, (from, to) -> {
+                for (int r = from; r < to; r++) {
+                    Item item = valid.get(r);
+                    EncodedImage image = EncodedImage.quantize(coefficients.getSubMatrix(r, 1, 0, k),
+                            item.width, item.height, model, modelId, quantization,
+                            EncodedImage.DEFAULT_CLIP_SIGMAS);
+                    item.encoded = entropyCoding ? image.entropyCoded() : image;
+                }
+            });
+            project.record(System.nanoTime() - t, rows);
+        }
+
+        private void write() throws IOException, InterruptedException {
+            Map<Integer, Item> waiting = new HashMap<>();
+            int expected = 0;
+            try (EncodedArchive.Writer out = EncodedArchive.create(archive, modelId);
+                 BufferedWriter manifest = Files.newBufferedWriter(Paths.get(archive + MANIFEST_EXTENSION))) {
+                for (Item item = projected.take(); item != END; item = projected.take()) {
+                    waiting.put(item.index, item);
+                    for (Item ready = waiting.remove(expected); ready != null; ready = waiting.remove(expected)) {
+                        expected++;
+                        if (ready.error != null) {
+                            skipped.add(ready.path + ": " + ready.error);
+                        } else {
+                            long t = System.nanoTime();
+                            out.add(ready.encoded);
+                            manifest.write(ready.path.toString());
+                            manifest.newLine();
+                            long now = System.nanoTime();
+                            write.record(now - t, 1);
+                            total.record(now - ready.started, 1);
+                            written++;
+                        }
+                        inFlight.release();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Body of a pipeline thread.
+     */
+    @FunctionalInterface
+    private interface Task {
+        void run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Encodes a directory from the command line:
+     * {@code BatchEncoder <model> <directory|glob> <archive> [int8|int16] [raw]}. With {@code raw} the
+     * coefficients are not entropy coded.
+     *
+     * @param args the command-line arguments
+     * @throws Exception if the model cannot be loaded or the archive cannot be written
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: BatchEncoder <model> <directory|glob> <archive> [int8|int16] [raw]");
+            return;
+        }
+        EncodedImage.Quantization quantization = args.length > 3
+                ? EncodedImage.Quantization.valueOf(args[3].toUpperCase(Locale.ROOT))
+                : EncodedImage.Quantization.INT8;
+        boolean raw = args.length > 4 && args[4].equals("raw");
+        BatchEncoder encoder = new BatchEncoder(PCA.loadFromFile(args[0])).setQuantization(quantization, !raw);
+        System.out.print(encoder.encode(args[1], args[2]));
+    }
+}
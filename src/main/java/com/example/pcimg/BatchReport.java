@@ -0,0 +1,126 @@
+package com.example.pcimg;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Outcome of a {@link BatchEncoder} or {@link BatchDecoder} run: throughput, the latency of every
+ * pipeline stage and the images that were skipped.
+ * <p>
+ * Every stage reports the mean and largest time an image spent in it and, for stages run by a fixed
+ * set of threads, the share of the run those threads were busy. The stage with the highest busy
+ * share is the bottleneck.
+ * </p>
+ */
+public final class BatchReport {
+    private final String verb;
+    private final int images;
+    private final List<String> skipped;
+    private final long elapsedNanos;
+    private final List<Stage> stages;
+
+    BatchReport(String verb, int images, List<String> skipped, long elapsedNanos, List<Stage> stages) {
+        this.verb = verb;
+        this.images = images;
+        this.skipped = skipped;
+        this.elapsedNanos = elapsedNanos;
+        this.stages = stages;
+    }
+
+    /**
+     * Returns the number of images processed successfully.
+     *
+     * @return the image count
+     */
+    public int getImages() {
+        return images;
+    }
+
+    /**
+     * Returns the images that were skipped, each as its name and the reason.
+     *
+     * @return the skipped images, in input order
+     */
+    public List<String> getSkipped() {
+        return Collections.unmodifiableList(skipped);
+    }
+
+    /**
+     * Returns the wall-clock time of the whole run.
+     *
+     * @return the elapsed time in seconds
+     */
+    public double getSeconds() {
+        return elapsedNanos / 1e9;
+    }
+
+    /**
+     * Returns the throughput of the whole run.
+     *
+     * @return the images processed per second
+     */
+    public double getImagesPerSecond() {
+        return elapsedNanos == 0 ? 0 : images / getSeconds();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(String.format(Locale.ROOT,
+                "%s %d images in %.2f s (%.1f images/s), skipped %d%n",
+                verb, images, getSeconds(), getImagesPerSecond(), skipped.size()));
+        for (Stage stage : stages) {
+            text.append(stage.format(elapsedNanos)).append(System.lineSeparator());
+        }
+        for (String image : skipped) {
+            text.append("skipped ").append(image).append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Latency statistics of one stage, safe to update from several threads. A batch of {@code n}
+     * images processed in {@code t} nanoseconds counts as {@code n} latencies of {@code t}, since every
+     * image in it waits for the whole batch.
+     */
+    static final class Stage {
+        private final String name;
+        private final int threads;
+        private long items;
+        private long calls;
+        private long busyNanos;
+        private long latencyNanos;
+        private long maxNanos;
+
+        /**
+         * @param name    the label of the stage in the report
+         * @param threads the threads running the stage, or 0 to leave out the busy share
+         */
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        synchronized void record(long nanos, int count) {
+            items += count;
+            calls++;
+            busyNanos += nanos;
+            latencyNanos += nanos * count;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized String format(long elapsedNanos) {
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+                    "%-11s %8d images  mean %8.2f ms  max %8.2f ms", name, items,
+                    items == 0 ? 0.0 : latencyNanos / 1e6 / items, maxNanos / 1e6));
+            if (threads > 0 && elapsedNanos > 0) {
+                line.append(String.format(Locale.ROOT, "  busy %5.1f%% of %d thread%s",
+                        100.0 * busyNanos / ((double) elapsedNanos * threads), threads, threads == 1 ? "" : "s"));
+            }
+            if (calls != items && calls > 0) {
+                line.append(String.format(Locale.ROOT, "  (%.1f images per batch)", (double) items / calls));
+            }
+            return line.toString();
+        }
+    }
+}
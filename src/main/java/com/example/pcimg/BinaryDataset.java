@@ -0,0 +1,489 @@
+package com.example.pcimg;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Binary, memory-mapped training dataset.
+ * <p>
+ * The file starts with a {@value #HEADER_BYTES}-byte little-endian header:
+ * </p>
+ * <pre>
+ *   0  magic "PCDS"
+ *   4  int   format version ({@value #VERSION})
+ *   8  long  rows
+ *  16  int   columns (features)
+ *  20  int   bytes per value: 4 for float32, 8 for float64
+ *  24  int   flags; bit 0 set if a label column is stored
+ *  28  int   reserved, 0
+ * </pre>
+ * <p>
+ * It is followed by the feature values in row-major order as raw little-endian floats of the declared
+ * width and, if present, by one float64 label per row. Reading is a bulk copy out of the mapped file
+ * into the flat {@link Matrix} storage, split across the {@link ComputePool}, with no text parsing.
+ * A CSV file is converted once with {@link #convertCsv}.
+ * </p>
+ */
+public class BinaryDataset {
+
+    /** Conventional file extension of binary datasets. */
+    public static final String EXTENSION = ".pcds";
+
+    /**
+     * Size of the file header in bytes. The feature values start 8-byte aligned; the label section
+     * directly follows them, so it is unaligned for float32 features with an odd number of values.
+     */
+    public static final int HEADER_BYTES = 32;
+
+    private static final int MAGIC = 'P' | 'C' << 8 | 'D' << 16 | 'S' << 24;
+    private static final int VERSION = 1;
+    private static final int FLAG_LABELS = 1;
+
+    /** Largest region mapped at once; mapped buffers are limited to 2 GB. */
+    private static final int MAX_MAP_BYTES = 1 << 30;
+
+    /**
+     * Storage type of the feature values.
+     */
+    public enum DataType {
+        /** IEEE 754 single precision; halves file size, which is ample for pixel data. */
+        FLOAT32(4),
+        /** IEEE 754 double precision; lossless for the values of a {@link Matrix}. */
+        FLOAT64(8);
+
+        private final int bytes;
+
+        DataType(int bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns the width of one value.
+         *
+         * @return the number of bytes per value
+         */
+        public int getBytes() {
+            return bytes;
+        }
+
+        private static DataType ofBytes(int bytes) throws IOException {
+            for (DataType type : values()) {
+                if (type.bytes == bytes) {
+                    return type;
+                }
+            }
+            throw new IOException("Unsupported value width: " + bytes);
+        }
+    }
+
+    private final String filePath;
+    private final long rows;
+    private final int cols;
+    private final DataType type;
+    private final boolean labels;
+
+    private BinaryDataset(String filePath, long rows, int cols, DataType type, boolean labels) {
+        this.filePath = filePath;
+        this.rows = rows;
+        this.cols = cols;
+        this.type = type;
+        this.labels = labels;
+    }
+
+    /**
+     * Opens a dataset file and validates its header. No data is read until requested.
+     *
+     * @param filePath the path to the dataset
+     * @return the opened dataset
+     * @throws IOException if the file cannot be read, is not a dataset or is truncated
+     */
+    public static BinaryDataset open(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a binary dataset: " + filePath);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported dataset version " + header.getInt(4) + ": " + filePath);
+            }
+            long rows = header.getLong(8);
+            int cols = header.getInt(16);
+            DataType type = DataType.ofBytes(header.getInt(20));
+            boolean labels = (header.getInt(24) & FLAG_LABELS) != 0;
+            if (rows < 0 || cols < 0) {
+                throw new IOException("Corrupt dataset header: " + filePath);
+            }
+            BinaryDataset dataset = new BinaryDataset(filePath, rows, cols, type, labels);
+            if (channel.size() < dataset.labelOffset() + (labels ? rows * 8 : 0)) {
+                throw new IOException("Truncated dataset: " + filePath);
+            }
+            return dataset;
+        }
+    }
+
+    /**
+     * Returns the number of samples.
+     *
+     * @return the row count
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of features.
+     *
+     * @return the column count, excluding the label
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Returns the storage type of the feature values.
+     *
+     * @return the data type
+     */
+    public DataType getType() {
+        return type;
+    }
+
+    /**
+     * Returns whether a label is stored for every row.
+     *
+     * @return {@code true} if {@link #getLabels()} is available
+     */
+    public boolean hasLabels() {
+        return labels;
+    }
+
+    /**
+     * Reads the whole dataset into a matrix.
+     *
+     * @return a rows x cols {@code Matrix}
+     * @throws IOException         if the file cannot be read
+     * @throws ArithmeticException if the dataset does not fit in one matrix
+     */
+    public Matrix read() throws IOException {
+        return read(0, Math.toIntExact(rows));
+    }
+
+    /**
+     * Reads a range of rows into a matrix.
+     *
+     * @param fromRow the first row to read
+     * @param count   the number of rows to read
+     * @return a count x cols {@code Matrix}
+     * @throws IOException               if the file cannot be read
+     * @throws IndexOutOfBoundsException if the range is outside the dataset
+     */
+    public Matrix read(long fromRow, int count) throws IOException {
+        if (fromRow < 0 || count < 0 || fromRow + count > rows) {
+            throw new IndexOutOfBoundsException("Rows [" + fromRow + ", " + (fromRow + count)
+                    + ") outside dataset of " + rows + " rows");
+        }
+        double[] data = new double[Math.multiplyExact(count, cols)];
+        long rowBytes = (long) cols * type.bytes;
+        int rowsPerMap = (int) Math.max(1, Math.min(count, MAX_MAP_BYTES / Math.max(1, rowBytes)));
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            for (int done = 0; done < count; done += rowsPerMap) {
+                int n = Math.min(rowsPerMap, count - done);
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + (fromRow + done) * rowBytes, n * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+                copyRows(mapped, type, data, done * cols, n, cols);
+            }
+        }
+        return new Matrix(count, cols, data);
+    }
+
+    /**
+     * Reads the dataset block by block, handing the rows to {@code sink} in order. Only one block is
+     * held in memory at a time.
+     *
+     * @param blockRows the number of rows per block
+     * @param sink      receives each block of rows
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if {@code blockRows} is not positive
+     */
+    public void forEachBlock(int blockRows, Consumer<Matrix> sink) throws IOException {
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockRows);
+        }
+        for (long row = 0; row < rows; row += blockRows) {
+            sink.accept(read(row, (int) Math.min(blockRows, rows - row)));
+        }
+    }
+
+    /**
+     * Reads the label of every row.
+     *
+     * @return the labels
+     * @throws IOException           if the file cannot be read
+     * @throws IllegalStateException if the dataset has no labels
+     */
+    public double[] getLabels() throws IOException {
+        if (!labels) {
+            throw new IllegalStateException("Dataset has no labels: " + filePath);
+        }
+        double[] values = new double[Math.toIntExact(rows)];
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            channel.map(FileChannel.MapMode.READ_ONLY, labelOffset(), rows * 8L)
+                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values);
+        }
+        return values;
+    }
+
+    /**
+     * Copies {@code rows} rows of {@code cols} values from a little-endian mapped region into
+     * {@code target}, converting them to double and splitting the rows across the {@link ComputePool}.
+     */
+    static void copyRows(ByteBuffer mapped, DataType type, double[] target, int targetOffset, int rows, int cols) {
+        ComputePool.parallelFor(0, rows, cols, (from, to) -> {
+            int offset = targetOffset + from * cols;
+            int length = (to - from) * cols;
+            if (type == DataType.FLOAT64) {
+                DoubleBuffer values = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                values.position(from * cols);
+                values.get(target, offset, length);
+            } else {
+                FloatBuffer values = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                values.position(from * cols);
+                for (int i = 0; i < length; i++) {
+                    target[offset + i] = values.get();
+                }
+            }
+        });
+    }
+
+    private long labelOffset() {
+        return HEADER_BYTES + rows * cols * type.bytes;
+    }
+
+    /**
+     * Writes a matrix as a dataset file.
+     *
+     * @param filePath the path of the file to create or overwrite
+     * @param data     the samples, one per row
+     * @param labels   one label per row, or {@code null} for none
+     * @param type     the storage type of the feature values
+     * @throws IOException              if the file cannot be written
+     * @throws IllegalArgumentException if the number of labels differs from the number of rows
+     */
+    public static void write(String filePath, Matrix data, double[] labels, DataType type) throws IOException {
+        if (labels != null && labels.length != data.getHeight()) {
+            throw new IllegalArgumentException("Expected " + data.getHeight() + " labels but got " + labels.length);
+        }
+        Writer writer = new Writer(filePath, data.getWidth(), labels != null, type);
+        try {
+            writer.add(data, 0);
+            if (labels != null) {
+                writer.addLabels(labels, labels.length);
+            }
+        } catch (IOException | RuntimeException e) {
+            abort(writer, e);
+            throw e;
+        }
+        writer.close();
+    }
+
+    /**
+     * Converts a CSV file to a dataset file in a single parallel pass with {@link CSVParser}.
+     * If the conversion fails, the partially written dataset file is deleted.
+     *
+     * @param csvPath         the path to the CSV file
+     * @param filePath        the path of the dataset file to create or overwrite
+     * @param skipHeader      {@code true} to skip the first CSV line
+     * @param labelFirstColumn {@code true} to store the first CSV column as the label instead of a feature
+     * @param type            the storage type of the feature values
+     * @return the opened dataset
+     * @throws IOException              if either file cannot be accessed
+     * @throws IllegalArgumentException if the CSV file is malformed
+     */
+    public static BinaryDataset convertCsv(String csvPath, String filePath, boolean skipHeader,
+                                           boolean labelFirstColumn, DataType type) throws IOException {
+        int skip = labelFirstColumn ? 1 : 0;
+        Writer[] writer = new Writer[1];
+        double[][] labels = {new double[1024]};
+        long[] count = new long[1];
+        try {
+            CSVParser.forEachBlock(csvPath, skipHeader, false, CSVParser.ALL_ROWS, block -> {
+                try {
+                    if (writer[0] == null) {
+                        writer[0] = new Writer(filePath, block.getWidth() - skip, labelFirstColumn, type);
+                    }
+                    writer[0].add(block, skip);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (labelFirstColumn) {
+                    int n = block.getHeight();
+                    int size = Math.toIntExact(count[0] + n);
+                    if (size > labels[0].length) {
+                        labels[0] = Arrays.copyOf(labels[0], Math.max(size, 2 * labels[0].length));
+                    }
+                    for (int i = 0; i < n; i++) {
+                        labels[0][(int) count[0] + i] = block.get(i, 0);
+                    }
+                }
+                count[0] += block.getHeight();
+            });
+            if (writer[0] == null) {
+                writer[0] = new Writer(filePath, 0, labelFirstColumn, type);
+            }
+            if (labelFirstColumn) {
+                writer[0].addLabels(labels[0], (int) count[0]);
+            }
+        } catch (UncheckedIOException e) {
+            abort(writer[0], e.getCause());
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            abort(writer[0], e);
+            throw e;
+        }
+        writer[0].close();
+        return open(filePath);
+    }
+
+    /**
+     * Discards a writer after {@code cause}, recording any failure to clean up as suppressed.
+     */
+    private static void abort(Writer writer, Throwable cause) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.abort();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Converts a CSV file from the command line:
+     * {@code BinaryDataset <csv> <dataset> [float32|float64] [label]}. The CSV header is skipped;
+     * with {@code label} the first column is stored as the label.
+     *
+     * @param args the command-line arguments
+     * @throws IOException if either file cannot be accessed
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BinaryDataset <csv> <dataset> [float32|float64] [label]");
+            return;
+        }
+        DataType type = args.length > 2 ? DataType.valueOf(args[2].toUpperCase()) : DataType.FLOAT32;
+        boolean label = args.length > 3 && args[3].equals("label");
+        BinaryDataset dataset = convertCsv(args[0], args[1], true, label, type);
+        System.out.println("Dataset dimensions: " + dataset.getRows() + " rows and " + dataset.getCols() + " columns");
+    }
+
+    /**
+     * Streams rows into a new dataset file and writes the header on close, once the row count is known.
+     * A writer that fails is {@link #abort() aborted} instead, so no header is ever written over
+     * incomplete data.
+     */
+    private static final class Writer implements AutoCloseable {
+        private final Path path;
+        private final FileChannel channel;
+        private final int cols;
+        private final boolean labels;
+        private final DataType type;
+        private final ByteBuffer buffer;
+        private long rows;
+
+        Writer(String filePath, int cols, boolean labels, DataType type) throws IOException {
+            this.path = Paths.get(filePath);
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.cols = cols;
+            this.labels = labels;
+            this.type = type;
+            this.buffer = ByteBuffer.allocateDirect(Math.max(1 << 20, cols * type.bytes))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(HEADER_BYTES);
+        }
+
+        /**
+         * Appends every row of {@code block}, dropping its first {@code skip} columns.
+         */
+        void add(Matrix block, int skip) throws IOException {
+            if (block.getWidth() - skip != cols) {
+                throw new IllegalArgumentException("Expected " + cols + " features but got " + (block.getWidth() - skip));
+            }
+            for (int i = 0; i < block.getHeight(); i++) {
+                if (buffer.remaining() < cols * type.bytes) {
+                    flush();
+                }
+                for (int j = 0; j < cols; j++) {
+                    double value = block.get(i, j + skip);
+                    if (type == DataType.FLOAT64) {
+                        buffer.putDouble(value);
+                    } else {
+                        buffer.putFloat((float) value);
+                    }
+                }
+            }
+            rows += block.getHeight();
+        }
+
+        /**
+         * Appends the label section; must follow the last row.
+         */
+        void addLabels(double[] values, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < 8) {
+                    flush();
+                }
+                buffer.putDouble(values[i]);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putLong(rows).putInt(cols).putInt(type.bytes)
+                        .putInt(labels ? FLAG_LABELS : 0).putInt(0).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            } finally {
+                channel.close();
+            }
+        }
+
+        /**
+         * Closes the file without writing the header and deletes it.
+         */
+        void abort() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
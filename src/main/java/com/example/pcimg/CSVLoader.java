@@ -5,32 +5,11 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
 
 public class CSVLoader {
 
     public static double[][] loadCsv(String filePath, boolean skipHeader) throws IOException {
-        List<double[]> rows = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            if (skipHeader) {
-                br.readLine();
-            }
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] tokens = line.split(",");
-                double[] row = new double[tokens.length];
-                for (int i = 0; i < tokens.length; i++) {
-                    row[i] = Double.parseDouble(tokens[i].trim());
-                }
-                rows.add(row);
-            }
-        }
-        double[][] data = new double[rows.size()][];
-        for (int i = 0; i < rows.size(); i++) {
-            data[i] = rows.get(i);
-        }
-        return data;
+        return CSVParser.parse(filePath, skipHeader, false).getValues();
     }
 
     public static BufferedImage matrixToScaledImage(Matrix matrix, int scaleFactor) {
@@ -0,0 +1,444 @@
+package com.example.pcimg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Parallel parser for numeric CSV files.
+ * <p>
+ * The file is memory-mapped and split into chunks of about {@link #CHUNK_BYTES} bytes whose boundaries
+ * are moved forward to the next line break, so every chunk holds whole rows. Chunks are parsed on the
+ * {@link ComputePool}: numbers are decoded straight from the mapped bytes and written into the flat
+ * storage of the result {@link Matrix}, without creating a {@code String} per line or field.
+ * </p>
+ * <p>
+ * Fields are separated by commas and may be padded with spaces or tabs; both {@code \n} and
+ * {@code \r\n} line endings are accepted and blank lines are skipped. Quoted fields are not supported.
+ * Every row must have as many fields as the first one.
+ * </p>
+ */
+public class CSVParser {
+
+    /** Target size of the newline-aligned chunk each task parses. */
+    public static final int CHUNK_BYTES = 8 << 20;
+
+    /** Row limit meaning "read every row". */
+    public static final int ALL_ROWS = Integer.MAX_VALUE;
+
+    /** Exactly representable powers of ten, used for the fast conversion path. */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Largest mantissa that is exactly representable as a double. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private CSVParser() {
+    }
+
+    /**
+     * Parses a whole CSV file into a matrix.
+     *
+     * @param filePath        the path to the CSV file
+     * @param skipHeader      {@code true} to skip the first line
+     * @param skipFirstColumn {@code true} to drop the first field of every row, e.g. a label
+     * @return a rows x columns {@code Matrix}; 0 x 0 if the file has no data rows
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a row has the wrong number of fields or a field is not a number
+     */
+    public static Matrix parse(String filePath, boolean skipHeader, boolean skipFirstColumn) throws IOException {
+        return parse(filePath, skipHeader, skipFirstColumn, ALL_ROWS);
+    }
+
+    /**
+     * Parses up to {@code maxRows} rows of a CSV file into a matrix.
+     * <p>
+     * Rows are counted per chunk first, so the result is allocated once at its final size and every
+     * chunk writes its rows directly into it. Chunks past the row limit are never parsed.
+     * </p>
+     *
+     * @param filePath        the path to the CSV file
+     * @param skipHeader      {@code true} to skip the first line
+     * @param skipFirstColumn {@code true} to drop the first field of every row, e.g. a label
+     * @param maxRows         the maximum number of rows to read, or {@link #ALL_ROWS}
+     * @return a rows x columns {@code Matrix}; 0 x 0 if the file has no data rows
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if {@code maxRows} is negative, a row has the wrong number of
+     *                                  fields or a field is not a number
+     */
+    public static Matrix parse(String filePath, boolean skipHeader, boolean skipFirstColumn, int maxRows)
+            throws IOException {
+        if (maxRows < 0) {
+            throw new IllegalArgumentException("Row limit must not be negative: " + maxRows);
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            MappedByteBuffer[] chunks = mapChunks(channel, skipHeader);
+            int cols = countColumns(chunks, skipFirstColumn);
+            if (cols == 0 || maxRows == 0) {
+                return new Matrix(0, 0);
+            }
+
+            // Count rows in waves so that a small row limit does not scan the whole file.
+            int[] firstRow = new int[chunks.length + 1];
+            int counted = 0;
+            int wave = 4 * ComputePool.getParallelism();
+            while (counted < chunks.length && firstRow[counted] < maxRows) {
+                int from = counted;
+                int to = Math.min(chunks.length, from + wave);
+                int[] counts = new int[to - from];
+                ComputePool.parallelFor(from, to, CHUNK_BYTES, (a, b) -> {
+                    for (int c = a; c < b; c++) {
+                        counts[c - from] = countRows(chunks[c]);
+                    }
+                });
+                for (int c = from; c < to; c++) {
+                    firstRow[c + 1] = (int) Math.min(ALL_ROWS, (long) firstRow[c] + counts[c - from]);
+                }
+                counted = to;
+            }
+            int rows = Math.min(maxRows, firstRow[counted]);
+
+            double[] data = new double[Math.multiplyExact(rows, cols)];
+            ComputePool.parallelFor(0, counted, CHUNK_BYTES, (a, b) -> {
+                for (int c = a; c < b; c++) {
+                    int limit = Math.min(rows, firstRow[c + 1]) - firstRow[c];
+                    if (limit > 0) {
+                        parseRows(chunks[c], data, firstRow[c], limit, firstRow[c], cols, skipFirstColumn);
+                    }
+                }
+            });
+            return new Matrix(rows, cols, data);
+        }
+    }
+
+    /**
+     * Parses a CSV file block by block, handing the rows to {@code sink} in file order.
+     * <p>
+     * Each block holds the rows of one chunk. Up to a few chunks per worker are parsed in parallel
+     * before being delivered, so memory use is bounded by that window rather than by the file size.
+     * This suits single-pass consumers such as {@link CovarianceAccumulator#add(Matrix)}. The blocks
+     * passed to {@code sink} are not reused.
+     * </p>
+     *
+     * @param filePath        the path to the CSV file
+     * @param skipHeader      {@code true} to skip the first line
+     * @param skipFirstColumn {@code true} to drop the first field of every row, e.g. a label
+     * @param maxRows         the maximum number of rows to read, or {@link #ALL_ROWS}
+     * @param sink            receives each non-empty block of rows
+     * @return the number of rows delivered
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if {@code maxRows} is negative, a row has the wrong number of
+     *                                  fields or a field is not a number
+     */
+    public static long forEachBlock(String filePath, boolean skipHeader, boolean skipFirstColumn, int maxRows,
+                                    Consumer<Matrix> sink) throws IOException {
+        if (maxRows < 0) {
+            throw new IllegalArgumentException("Row limit must not be negative: " + maxRows);
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            MappedByteBuffer[] chunks = mapChunks(channel, skipHeader);
+            int cols = countColumns(chunks, skipFirstColumn);
+            if (cols == 0) {
+                return 0;
+            }
+            long delivered = 0;
+            int wave = 4 * ComputePool.getParallelism();
+            for (int from = 0; from < chunks.length && delivered < maxRows; from += wave) {
+                int start = from;
+                int to = Math.min(chunks.length, start + wave);
+                int[] counts = new int[to - start];
+                ComputePool.parallelFor(start, to, CHUNK_BYTES, (a, b) -> {
+                    for (int c = a; c < b; c++) {
+                        counts[c - start] = countRows(chunks[c]);
+                    }
+                });
+                long[] fileRow = new long[to - start];
+                fileRow[0] = delivered;
+                for (int c = 1; c < fileRow.length; c++) {
+                    fileRow[c] = fileRow[c - 1] + counts[c - 1];
+                }
+                Matrix[] blocks = new Matrix[to - start];
+                ComputePool.parallelFor(start, to, CHUNK_BYTES, (a, b) -> {
+                    for (int c = a; c < b; c++) {
+                        int count = (int) Math.max(0, Math.min(counts[c - start], maxRows - fileRow[c - start]));
+                        double[] data = new double[Math.multiplyExact(count, cols)];
+                        parseRows(chunks[c], data, 0, count, fileRow[c - start], cols, skipFirstColumn);
+                        blocks[c - start] = new Matrix(count, cols, data);
+                    }
+                });
+                for (Matrix block : blocks) {
+                    if (block.getHeight() > 0) {
+                        sink.accept(block);
+                        delivered += block.getHeight();
+                    }
+                }
+            }
+            return delivered;
+        }
+    }
+
+    /**
+     * Maps the data part of the file as newline-aligned chunks.
+     */
+    private static MappedByteBuffer[] mapChunks(FileChannel channel, boolean skipHeader) throws IOException {
+        long size = channel.size();
+        long start = skipHeader ? nextLine(channel, 0, size) : 0;
+        List<MappedByteBuffer> chunks = new ArrayList<>();
+        while (start < size) {
+            long end = size - start <= CHUNK_BYTES ? size : nextLine(channel, start + CHUNK_BYTES, size);
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Line longer than " + Integer.MAX_VALUE + " bytes at offset " + start);
+            }
+            chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            start = end;
+        }
+        return chunks.toArray(new MappedByteBuffer[0]);
+    }
+
+    /**
+     * Returns the offset just past the first {@code '\n'} at or after {@code position}, or {@code size}.
+     */
+    private static long nextLine(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Counts the fields of the first non-blank line, minus the skipped first column.
+     */
+    private static int countColumns(MappedByteBuffer[] chunks, boolean skipFirstColumn) {
+        for (MappedByteBuffer chunk : chunks) {
+            int limit = chunk.limit();
+            int pos = 0;
+            while (pos < limit) {
+                int end = lineEnd(chunk, pos, limit);
+                if (!isBlank(chunk, pos, end)) {
+                    int fields = 1;
+                    for (int i = pos; i < end; i++) {
+                        if (chunk.get(i) == ',') {
+                            fields++;
+                        }
+                    }
+                    return Math.max(0, fields - (skipFirstColumn ? 1 : 0));
+                }
+                pos = end + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Counts the non-blank lines of a chunk.
+     */
+    private static int countRows(ByteBuffer chunk) {
+        int limit = chunk.limit();
+        int rows = 0;
+        boolean content = false;
+        for (int i = 0; i < limit; i++) {
+            byte b = chunk.get(i);
+            if (b == '\n') {
+                if (content) {
+                    rows++;
+                }
+                content = false;
+            } else if (!content && !isSpace(b)) {
+                content = true;
+            }
+        }
+        return content ? rows + 1 : rows;
+    }
+
+    /**
+     * Parses up to {@code maxRows} non-blank lines of a chunk into consecutive rows of {@code target}.
+     *
+     * @param rowOffset the first row of {@code target} to write
+     * @param fileRow   the index of the chunk's first row in the file, for error messages
+     */
+    private static void parseRows(ByteBuffer chunk, double[] target, int rowOffset, int maxRows, long fileRow,
+                                  int cols, boolean skipFirstColumn) {
+        int limit = chunk.limit();
+        int pos = 0;
+        int expected = cols + (skipFirstColumn ? 1 : 0);
+        for (int r = 0; r < maxRows && pos < limit; ) {
+            int end = lineEnd(chunk, pos, limit);
+            if (!isBlank(chunk, pos, end)) {
+                int out = (rowOffset + r) * cols;
+                int field = 0;
+                int start = pos;
+                while (true) {
+                    int stop = start;
+                    while (stop < end && chunk.get(stop) != ',') {
+                        stop++;
+                    }
+                    if (field >= expected) {
+                        field++;
+                        break;
+                    }
+                    if (field > 0 || !skipFirstColumn) {
+                        target[out++] = parseDouble(chunk, start, stop);
+                    }
+                    field++;
+                    if (stop == end) {
+                        break;
+                    }
+                    start = stop + 1;
+                }
+                if (field != expected) {
+                    throw new IllegalArgumentException("Row " + (fileRow + r) + " has "
+                            + (field > expected ? "more than " + expected : String.valueOf(field))
+                            + " fields, expected " + expected);
+                }
+                r++;
+            }
+            pos = end + 1;
+        }
+    }
+
+    /**
+     * Parses the number in {@code [from, to)}, ignoring surrounding spaces, tabs and carriage returns.
+     * <p>
+     * Plain decimals with at most 18 significant digits and a small exponent are converted exactly with
+     * one multiplication or division by a power of ten; anything else falls back to
+     * {@link Double#parseDouble(String)}, so the result always matches it.
+     * </p>
+     *
+     * @throws NumberFormatException if the field is not a number
+     */
+    private static double parseDouble(ByteBuffer chunk, int from, int to) {
+        while (from < to && isSpace(chunk.get(from))) {
+            from++;
+        }
+        while (to > from && isSpace(chunk.get(to - 1))) {
+            to--;
+        }
+        int i = from;
+        boolean negative = false;
+        if (i < to && (chunk.get(i) == '-' || chunk.get(i) == '+')) {
+            negative = chunk.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean any = false;
+        for (; i < to; i++) {
+            int d = chunk.get(i) - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            any = true;
+            if (mantissa != 0 || d != 0) {
+                if (++digits > 18) {
+                    return slowParse(chunk, from, to);
+                }
+                mantissa = mantissa * 10 + d;
+            }
+        }
+        if (i < to && chunk.get(i) == '.') {
+            for (i++; i < to; i++) {
+                int d = chunk.get(i) - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                any = true;
+                scale--;
+                if (mantissa != 0 || d != 0) {
+                    if (++digits > 18) {
+                        return slowParse(chunk, from, to);
+                    }
+                    mantissa = mantissa * 10 + d;
+                }
+            }
+        }
+        if (!any) {
+            return slowParse(chunk, from, to);
+        }
+        if (i < to && (chunk.get(i) == 'e' || chunk.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (chunk.get(i) == '-' || chunk.get(i) == '+')) {
+                negativeExponent = chunk.get(i) == '-';
+                i++;
+            }
+            int exponent = 0;
+            int start = i;
+            for (; i < to; i++) {
+                int d = chunk.get(i) - '0';
+                if (d < 0 || d > 9 || exponent > 1000) {
+                    break;
+                }
+                exponent = exponent * 10 + d;
+            }
+            if (i == start) {
+                return slowParse(chunk, from, to);
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i != to) {
+            return slowParse(chunk, from, to);
+        }
+        double value;
+        if (mantissa == 0) {
+            // Signed like Double.parseDouble: "-0" and "-0.0" are -0.0.
+            return negative ? -0.0 : 0.0;
+        } else if (mantissa <= MAX_EXACT_MANTISSA && scale >= -22 && scale <= 22) {
+            value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+        } else {
+            return slowParse(chunk, from, to);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double slowParse(ByteBuffer chunk, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = chunk.get(from + i);
+        }
+        return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Returns the index of the {@code '\n'} ending the line at {@code from}, or {@code limit}.
+     */
+    private static int lineEnd(ByteBuffer chunk, int from, int limit) {
+        while (from < limit && chunk.get(from) != '\n') {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isBlank(ByteBuffer chunk, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isSpace(chunk.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.pcimg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Lossless entropy coder for quantized PCA coefficients.
+ * <p>
+ * Each coefficient is zigzag-mapped to an unsigned value {@code u} and split, as in JPEG, into its
+ * magnitude class (the bit length of {@code u}) and the bits below the leading one. The class is
+ * coded with an adaptive frequency model through a byte-oriented range coder (the carry-propagating
+ * coder used by LZMA); the remaining bits are close to uniform and go to a separate raw bit stream.
+ * Components are grouped into bands of doubling width, {@code [0], [1, 2], [3, 6], ...}, with one
+ * model per band, so the coder learns how the coefficient magnitudes fall off with the component index.
+ * </p>
+ * <p>
+ * The models keep their frequencies normalized to a power-of-two total, rebuilt at increasing
+ * intervals, so encoding a class takes a shift and two multiplies, and decoding one division plus a
+ * table lookup. Both directions
+ * make a single pass over the data with a few kilobytes of state, and the models adapt from a flat
+ * start, so no tables are stored. The output is a little-endian int holding the length of the range
+ * coded part, that part, and then the raw bits.
+ * </p>
+ */
+public final class CoefficientCoder {
+
+    /** Magnitude classes of a 16-bit zigzag value: 0 for zero, otherwise 1..16. */
+    private static final int CLASSES = 17;
+
+    private static final int BANDS = 16;
+
+    /** Bits of precision of the normalized model frequencies. */
+    private static final int PROBABILITY_BITS = 15;
+
+    /** Largest number of symbols coded between two model rebuilds. */
+    private static final int MAX_REBUILD_INTERVAL = 1024;
+
+    /** Granularity of the decoder's class lookup table. */
+    private static final int LOOKUP_SHIFT = 9;
+
+    private static final long TOP = 1L << 24;
+
+    private CoefficientCoder() {
+    }
+
+    /**
+     * Compresses rows of quantized coefficients.
+     *
+     * @param values the coefficients in row-major order, {@code rows * cols} values
+     * @param rows   the number of rows
+     * @param cols   the number of components per row
+     * @return the compressed bytes
+     */
+    public static byte[] encode(short[] values, int rows, int cols) {
+        Model[] models = newModels();
+        int[] bands = bands(cols);
+        Encoder encoder = new Encoder(Math.max(16, values.length));
+        BitWriter raw = new BitWriter(Math.max(16, values.length));
+        for (int r = 0; r < rows; r++) {
+            int base = r * cols;
+            for (int c = 0; c < cols; c++) {
+                int q = values[base + c];
+                int u = (q << 1) ^ (q >> 31);
+                int cls = 32 - Integer.numberOfLeadingZeros(u);
+                Model model = models[bands[c]];
+                encoder.encode(model.cumulative[cls], model.cumulative[cls + 1]);
+                model.update(cls);
+                if (cls > 1) {
+                    raw.write(u & ((1 << (cls - 1)) - 1), cls - 1);
+                }
+            }
+        }
+        byte[] coded = encoder.finish();
+        byte[] bits = raw.finish();
+        ByteBuffer out = ByteBuffer.allocate(4 + coded.length + bits.length).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(coded.length).put(coded).put(bits);
+        return out.array();
+    }
+
+    /**
+     * Decompresses coefficients written by {@link #encode(short[], int, int)}, advancing the buffer
+     * past the compressed bytes.
+     *
+     * @param in     the compressed bytes, starting at the buffer's position
+     * @param values receives {@code rows * cols} coefficients in row-major order
+     * @param rows   the number of rows
+     * @param cols   the number of components per row
+     * @throws IOException if the stream is truncated or corrupt
+     */
+    public static void decode(ByteBuffer in, short[] values, int rows, int cols) throws IOException {
+        if (in.remaining() < 4) {
+            throw new IOException("Truncated coefficient stream");
+        }
+        int length = in.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt();
+        if (length < 5 || length > in.remaining() - 4) {
+            throw new IOException("Truncated coefficient stream");
+        }
+        in.position(in.position() + 4);
+        ByteBuffer coded = in.slice();
+        coded.limit(length);
+        in.position(in.position() + length);
+
+        Model[] models = newModels();
+        int[] bands = bands(cols);
+        Decoder decoder = new Decoder(coded);
+        BitReader raw = new BitReader(in);
+        for (int r = 0; r < rows; r++) {
+            int base = r * cols;
+            for (int c = 0; c < cols; c++) {
+                Model model = models[bands[c]];
+                int cls = decoder.decode(model);
+                model.update(cls);
+                int u = cls == 0 ? 0 : 1 << (cls - 1);
+                if (cls > 1) {
+                    u |= raw.read(cls - 1);
+                }
+                values[base + c] = (short) ((u >>> 1) ^ -(u & 1));
+            }
+        }
+    }
+
+    private static Model[] newModels() {
+        Model[] models = new Model[BANDS];
+        for (int b = 0; b < BANDS; b++) {
+            models[b] = new Model();
+        }
+        return models;
+    }
+
+    /**
+     * Returns the band of every component: {@code floor(log2(c + 1))}, capped at the last band.
+     */
+    private static int[] bands(int cols) {
+        int[] bands = new int[cols];
+        for (int c = 0; c < cols; c++) {
+            bands[c] = Math.min(BANDS - 1, 31 - Integer.numberOfLeadingZeros(c + 1));
+        }
+        return bands;
+    }
+
+    /**
+     * Adaptive frequency model over the magnitude classes. Symbol counts are collected continuously;
+     * the cumulative table used for coding is rebuilt from them every {@code interval} symbols,
+     * normalized so that every class keeps a nonzero frequency and the total is
+     * {@code 2^PROBABILITY_BITS}.
+     */
+    private static final class Model {
+        final int[] counts = new int[CLASSES];
+        final int[] cumulative = new int[CLASSES + 1];
+        /** First class whose range reaches each block of {@code 2^LOOKUP_SHIFT} cumulative values. */
+        final byte[] lookup = new byte[1 << (PROBABILITY_BITS - LOOKUP_SHIFT)];
+        private int pending;
+        private int interval = 16;
+
+        Model() {
+            Arrays.fill(counts, 1);
+            rebuild();
+        }
+
+        void update(int symbol) {
+            counts[symbol] += 2;
+            if (++pending == interval) {
+                rebuild();
+                interval = Math.min(MAX_REBUILD_INTERVAL, interval * 2);
+            }
+        }
+
+        private void rebuild() {
+            pending = 0;
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            if (total > 1 << 16) {
+                total = 0;
+                for (int s = 0; s < CLASSES; s++) {
+                    counts[s] = (counts[s] + 1) >>> 1;
+                    total += counts[s];
+                }
+            }
+            int spare = (1 << PROBABILITY_BITS) - CLASSES;
+            int largest = 0;
+            int sum = 0;
+            for (int s = 0; s < CLASSES; s++) {
+                int freq = 1 + (int) ((long) counts[s] * spare / total);
+                cumulative[s] = sum;
+                sum += freq;
+                if (counts[s] > counts[largest]) {
+                    largest = s;
+                }
+            }
+            // Give the rounding remainder to the most frequent class.
+            int remainder = (1 << PROBABILITY_BITS) - sum;
+            for (int s = largest + 1; s <= CLASSES; s++) {
+                cumulative[s] += remainder;
+            }
+            cumulative[CLASSES] = 1 << PROBABILITY_BITS;
+            int s = 0;
+            for (int i = 0; i < lookup.length; i++) {
+                while (cumulative[s + 1] <= i << LOOKUP_SHIFT) {
+                    s++;
+                }
+                lookup[i] = (byte) s;
+            }
+        }
+    }
+
+    /**
+     * Range encoder with a 33-bit low register and carry propagation through pending 0xFF bytes.
+     */
+    private static final class Encoder {
+        private byte[] out;
+        private int size;
+        private long low;
+        private long range = 0xFFFFFFFFL;
+        private int cache;
+        private long cacheSize = 1;
+
+        Encoder(int capacity) {
+            out = new byte[capacity];
+        }
+
+        void encode(int cumulativeLow, int cumulativeHigh) {
+            long r = range >>> PROBABILITY_BITS;
+            low += r * cumulativeLow;
+            range = r * (cumulativeHigh - cumulativeLow);
+            while (range < TOP) {
+                range <<= 8;
+                shiftLow();
+            }
+        }
+
+        private void shiftLow() {
+            if (low < 0xFF000000L || low > 0xFFFFFFFFL) {
+                int carry = (int) (low >>> 32);
+                int pending = cache;
+                do {
+                    put(pending + carry);
+                    pending = 0xFF;
+                } while (--cacheSize != 0);
+                cache = (int) (low >>> 24) & 0xFF;
+            }
+            cacheSize++;
+            low = (low & 0x00FFFFFFL) << 8;
+        }
+
+        private void put(int b) {
+            if (size == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            out[size++] = (byte) b;
+        }
+
+        byte[] finish() {
+            for (int i = 0; i < 5; i++) {
+                shiftLow();
+            }
+            return Arrays.copyOf(out, size);
+        }
+    }
+
+    /**
+     * Range decoder matching {@link Encoder}.
+     */
+    private static final class Decoder {
+        private final ByteBuffer in;
+        private long range = 0xFFFFFFFFL;
+        private long code;
+
+        Decoder(ByteBuffer in) throws IOException {
+            this.in = in;
+            next();
+            for (int i = 0; i < 4; i++) {
+                code = (code << 8) | next();
+            }
+        }
+
+        /**
+         * Decodes one class with the model's cumulative table, starting the search from its lookup table.
+         */
+        int decode(Model model) throws IOException {
+            int[] cumulative = model.cumulative;
+            long r = range >>> PROBABILITY_BITS;
+            long target = code / r;
+            if (target >= cumulative[CLASSES]) {
+                throw new IOException("Corrupt coefficient stream");
+            }
+            int s = model.lookup[(int) target >>> LOOKUP_SHIFT];
+            while (cumulative[s + 1] <= target) {
+                s++;
+            }
+            long base = r * cumulative[s];
+            code -= base;
+            range = r * cumulative[s + 1] - base;
+            while (range < TOP) {
+                range <<= 8;
+                code = ((code << 8) | next()) & 0xFFFFFFFFL;
+            }
+            return s;
+        }
+
+        private int next() throws IOException {
+            if (!in.hasRemaining()) {
+                throw new IOException("Truncated coefficient stream");
+            }
+            return in.get() & 0xFF;
+        }
+    }
+
+    /**
+     * Appends raw bits, least significant first.
+     */
+    private static final class BitWriter {
+        private byte[] out;
+        private int size;
+        private long buffer;
+        private int count;
+
+        BitWriter(int capacity) {
+            out = new byte[capacity];
+        }
+
+        void write(int value, int bits) {
+            buffer |= (long) value << count;
+            count += bits;
+            while (count >= 8) {
+                if (size == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                out[size++] = (byte) buffer;
+                buffer >>>= 8;
+                count -= 8;
+            }
+        }
+
+        byte[] finish() {
+            if (count > 0) {
+                write(0, 8 - count);
+            }
+            return Arrays.copyOf(out, size);
+        }
+    }
+
+    /**
+     * Reads raw bits written by {@link BitWriter}, consuming input bytes only as they are needed.
+     */
+    private static final class BitReader {
+        private final ByteBuffer in;
+        private long buffer;
+        private int count;
+
+        BitReader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        int read(int bits) throws IOException {
+            while (count < bits) {
+                if (!in.hasRemaining()) {
+                    throw new IOException("Truncated coefficient stream");
+                }
+                buffer |= (long) (in.get() & 0xFF) << count;
+                count += 8;
+            }
+            int value = (int) (buffer & ((1L << bits) - 1));
+            buffer >>>= bits;
+            count -= bits;
+            return value;
+        }
+    }
+}
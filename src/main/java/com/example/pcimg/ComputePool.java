@@ -0,0 +1,145 @@
+package com.example.pcimg;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Process-wide scheduler for the parallel {@link Matrix} kernels.
+ * <p>
+ * All parallel work runs on one shared {@link ForkJoinPool}, so threads are created once and
+ * nested parallel calls (for example a multiply issued from inside another parallel loop) reuse
+ * the same workers instead of oversubscribing the machine. Ranges are split recursively and idle
+ * workers steal the remaining halves, which keeps uneven tiles balanced.
+ * </p>
+ * <p>
+ * The parallelism level defaults to the number of available processors and can be set with the
+ * {@value #PARALLELISM_PROPERTY} system property or {@link #setParallelism(int)}.
+ * </p>
+ */
+public final class ComputePool {
+
+    /** System property holding the initial parallelism level. */
+    public static final String PARALLELISM_PROPERTY = "pcimg.parallelism";
+
+    /** Problems with less estimated work than this (in multiply-adds) run inline on the caller. */
+    public static final long INLINE_THRESHOLD = 1L << 16;
+
+    private static volatile ForkJoinPool pool = createPool(
+            Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Body of a parallel loop, invoked with disjoint sub-ranges of the iteration space.
+     */
+    @FunctionalInterface
+    public interface RangeBody {
+        /**
+         * Processes the indices {@code [from, to)}.
+         *
+         * @param from the first index, inclusive
+         * @param to   the last index, exclusive
+         */
+        void run(int from, int to);
+    }
+
+    private ComputePool() {
+    }
+
+    /**
+     * Returns the current parallelism level of the shared pool.
+     *
+     * @return the number of worker threads
+     */
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Replaces the shared pool with one of the given parallelism level.
+     * Work already submitted to the previous pool is allowed to finish.
+     *
+     * @param parallelism the number of worker threads; must be positive
+     * @throws IllegalArgumentException if {@code parallelism} is not positive
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        ForkJoinPool old = pool;
+        pool = createPool(parallelism);
+        old.shutdown();
+    }
+
+    /**
+     * Runs {@code body} over {@code [start, end)}, splitting the range across the shared pool.
+     * <p>
+     * If the total work {@code (end - start) * workPerItem} is below {@link #INLINE_THRESHOLD}
+     * or the pool has a single thread, the body runs inline on the calling thread.
+     * </p>
+     *
+     * @param start       the first index, inclusive
+     * @param end         the last index, exclusive
+     * @param workPerItem an estimate of the multiply-adds performed per index
+     * @param body        the loop body
+     */
+    public static void parallelFor(int start, int end, long workPerItem, RangeBody body) {
+        int n = end - start;
+        if (n <= 0) {
+            return;
+        }
+        ForkJoinPool p = pool;
+        int parallelism = p.getParallelism();
+        if (n == 1 || parallelism == 1 || (long) n * Math.max(1, workPerItem) < INLINE_THRESHOLD) {
+            body.run(start, end);
+            return;
+        }
+        // Aim for several tiles per worker so stealing can even out uneven tiles,
+        // but keep each tile large enough to amortize the task overhead.
+        int grain = Math.max(1, n / (parallelism * 4));
+        long minItems = INLINE_THRESHOLD / Math.max(1, workPerItem);
+        grain = (int) Math.max(grain, Math.min(minItems, n));
+        RangeTask task = new RangeTask(start, end, grain, body);
+        if (ForkJoinTask.getPool() == p) {
+            task.invoke();
+        } else {
+            p.invoke(task);
+        }
+    }
+
+    private static ForkJoinPool createPool(int parallelism) {
+        return new ForkJoinPool(Math.max(1, parallelism), p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("pcimg-compute-" + t.getPoolIndex());
+            return t;
+        }, null, false);
+    }
+
+    /**
+     * Recursively halves a range until it is no larger than the grain size.
+     */
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final RangeBody body;
+
+        RangeTask(int from, int to, int grain, RangeBody body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, mid, grain, body), new RangeTask(mid, to, grain, body));
+        }
+    }
+}
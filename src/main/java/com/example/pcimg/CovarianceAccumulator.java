@@ -0,0 +1,283 @@
+package com.example.pcimg;
+
+import java.util.List;
+
+/**
+ * Single-pass accumulator of the mean and co-moment matrix of a stream of samples.
+ * <p>
+ * Rows are buffered into blocks. Each full block is centered on its own mean, its co-moment
+ * {@code B^T B} is added with the parallel {@link Matrix#syrk()} kernel, and the block is merged into
+ * the running totals with the pairwise update of Chan, Golub and LeVeque. The accumulator holds one
+ * features x features array plus one block, independent of the number of rows.
+ * </p>
+ * <p>
+ * Instances are not thread-safe. To accumulate from several threads, give each thread its own
+ * accumulator and combine them with {@link #merge(CovarianceAccumulator)}; note that every partial
+ * accumulator holds its own features x features array. {@link #partials(int)},
+ * {@link #addAll(CovarianceAccumulator[], List)} and {@link #mergeAll(CovarianceAccumulator[])} do
+ * this on the {@link ComputePool}, with as many partials as fit in {@link #PARTIALS_BYTES}.
+ * </p>
+ */
+public class CovarianceAccumulator {
+
+    /** Number of rows buffered before they are folded into the co-moment matrix. */
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    /** Memory budget for the co-moment arrays of the accumulators created by {@link #partials(int)}. */
+    public static final long PARTIALS_BYTES = 512L << 20;
+
+    private final int features;
+    private final double[] mean;
+    private final double[] coMoment;
+    private final double[] block;
+    private final int blockSize;
+    private long count;
+    private int buffered;
+
+    /**
+     * Creates an empty accumulator with the {@link #DEFAULT_BLOCK_SIZE}.
+     *
+     * @param features the number of features (columns) of every sample
+     */
+    public CovarianceAccumulator(int features) {
+        this(features, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates an empty accumulator.
+     *
+     * @param features  the number of features (columns) of every sample
+     * @param blockSize the number of rows buffered per block update
+     */
+    public CovarianceAccumulator(int features, int blockSize) {
+        this.features = features;
+        this.blockSize = Math.max(1, blockSize);
+        this.mean = new double[features];
+        this.coMoment = new double[features * features];
+        this.block = new double[this.blockSize * features];
+    }
+
+    /**
+     * Adds one sample.
+     *
+     * @param row the sample; its length must equal the number of features
+     * @throws IllegalArgumentException if the row has the wrong length
+     */
+    public void add(double[] row) {
+        if (row.length != features) {
+            throw new IllegalArgumentException("Expected " + features + " features but got " + row.length);
+        }
+        System.arraycopy(row, 0, block, buffered * features, features);
+        if (++buffered == blockSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds every row of a matrix as a sample.
+     *
+     * @param rows the samples, one per row
+     * @throws IllegalArgumentException if the width does not equal the number of features
+     */
+    public void add(Matrix rows) {
+        if (rows.getWidth() != features) {
+            throw new IllegalArgumentException("Expected " + features + " features but got " + rows.getWidth());
+        }
+        for (int i = 0; i < rows.getHeight(); i++) {
+            for (int j = 0; j < features; j++) {
+                block[buffered * features + j] = rows.get(i, j);
+            }
+            if (++buffered == blockSize) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Folds another accumulator into this one. The other accumulator is flushed but otherwise unchanged.
+     *
+     * @param other an accumulator over the same features
+     * @throws IllegalArgumentException if the feature counts differ
+     */
+    public void merge(CovarianceAccumulator other) {
+        if (other.features != features) {
+            throw new IllegalArgumentException("Cannot merge accumulators of different widths");
+        }
+        flush();
+        other.flush();
+        combine(other.count, other.mean, other.coMoment);
+    }
+
+    /**
+     * Creates empty partial accumulators for a parallel pass: one per {@link ComputePool} worker, but
+     * no more than fit in {@link #PARTIALS_BYTES}, and at least one.
+     *
+     * @param features the number of features (columns) of every sample
+     * @return the partial accumulators
+     */
+    public static CovarianceAccumulator[] partials(int features) {
+        long bytes = 8L * features * features;
+        int count = (int) Math.max(1, Math.min(ComputePool.getParallelism(), PARTIALS_BYTES / Math.max(1, bytes)));
+        CovarianceAccumulator[] partials = new CovarianceAccumulator[count];
+        for (int i = 0; i < count; i++) {
+            partials[i] = new CovarianceAccumulator(features);
+        }
+        return partials;
+    }
+
+    /**
+     * Adds blocks of samples to partial accumulators in parallel. Block {@code i} goes to partial
+     * {@code i % partials.length}, so no partial is updated by two threads at once.
+     *
+     * @param partials the partial accumulators, e.g. from {@link #partials(int)}
+     * @param blocks   the samples, one per row of each block
+     * @throws IllegalArgumentException if a block's width does not equal the number of features
+     */
+    public static void addAll(CovarianceAccumulator[] partials, List<Matrix> blocks) {
+        int count = Math.min(partials.length, blocks.size());
+        long work = (long) partials[0].features * partials[0].features;
+        ComputePool.parallelFor(0, count, work, (from, to) -> {
+            for (int p = from; p < to; p++) {
+                for (int i = p; i < blocks.size(); i += partials.length) {
+                    partials[p].add(blocks.get(i));
+                }
+            }
+        });
+    }
+
+    /**
+     * Combines partial accumulators with a parallel tree of {@link #merge(CovarianceAccumulator)} calls.
+     *
+     * @param partials the partial accumulators over the same features
+     * @return the first partial, now holding the statistics of all of them
+     * @throws IllegalArgumentException if the feature counts differ
+     */
+    public static CovarianceAccumulator mergeAll(CovarianceAccumulator[] partials) {
+        long work = (long) partials[0].features * partials[0].features;
+        for (int step = 1; step < partials.length; step *= 2) {
+            int stride = 2 * step;
+            ComputePool.parallelFor(0, (partials.length + stride - 1) / stride, work, (from, to) -> {
+                for (int i = from * stride; i < to * stride; i += stride) {
+                    if (i + stride / 2 < partials.length) {
+                        partials[i].merge(partials[i + stride / 2]);
+                    }
+                }
+            });
+        }
+        return partials[0];
+    }
+
+    /**
+     * Returns the number of samples added so far.
+     *
+     * @return the sample count
+     */
+    public long getCount() {
+        return count + buffered;
+    }
+
+    /**
+     * Returns the number of features.
+     *
+     * @return the sample width
+     */
+    public int getFeatures() {
+        return features;
+    }
+
+    /**
+     * Returns the mean of the samples added so far.
+     *
+     * @return a new 1 x features {@code Matrix}
+     */
+    public Matrix getMean() {
+        flush();
+        return new Matrix(1, features, mean.clone());
+    }
+
+    /**
+     * Returns the co-moment matrix {@code sum (x - mean)^T (x - mean)} of the samples added so far.
+     * This equals {@code X.syrk()} of the centered data; divide by {@code getCount() - 1} for the
+     * sample covariance.
+     * <p>
+     * The returned matrix shares storage with the accumulator to avoid a second features x features
+     * array; it is only valid until the next call to {@code add} or {@code merge}.
+     * </p>
+     *
+     * @return a features x features symmetric {@code Matrix}
+     */
+    public Matrix getCoMoment() {
+        flush();
+        int n = features;
+        ComputePool.parallelFor(0, n, n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < i; j++) {
+                    coMoment[i * n + j] = coMoment[j * n + i];
+                }
+            }
+        });
+        return new Matrix(n, n, coMoment);
+    }
+
+    /**
+     * Folds the buffered rows into the running mean and co-moment.
+     */
+    private void flush() {
+        int b = buffered;
+        if (b == 0) {
+            return;
+        }
+        int n = features;
+        double[] blockMean = new double[n];
+        for (int r = 0; r < b; r++) {
+            int row = r * n;
+            for (int j = 0; j < n; j++) {
+                blockMean[j] += block[row + j];
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            blockMean[j] /= b;
+        }
+        for (int r = 0; r < b; r++) {
+            int row = r * n;
+            for (int j = 0; j < n; j++) {
+                block[row + j] -= blockMean[j];
+            }
+        }
+        buffered = 0;
+        new Matrix(b, n, block).syrkUpper(coMoment);
+        combine(b, blockMean, null);
+    }
+
+    /**
+     * Chan's pairwise update: merges a partition of {@code countB} samples with mean {@code meanB}.
+     * The partition's own co-moment, if not already added, is passed in {@code coMomentB}.
+     */
+    private void combine(long countB, double[] meanB, double[] coMomentB) {
+        if (countB == 0) {
+            return;
+        }
+        int n = features;
+        long countA = count;
+        long total = countA + countB;
+        double[] delta = new double[n];
+        for (int j = 0; j < n; j++) {
+            delta[j] = meanB[j] - mean[j];
+        }
+        double weight = (double) countA * countB / total;
+        ComputePool.parallelFor(0, n, n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = i * n;
+                double di = delta[i] * weight;
+                for (int j = i; j < n; j++) {
+                    coMoment[row + j] += di * delta[j] + (coMomentB == null ? 0 : coMomentB[row + j]);
+                }
+            }
+        });
+        double f = (double) countB / total;
+        for (int j = 0; j < n; j++) {
+            mean[j] += delta[j] * f;
+        }
+        count = total;
+    }
+}
@@ -53,8 +53,9 @@ public class DecodeController {
      * Handles the decoding process when the decode button is clicked.
      * <p>
      * The method reads the compressed matrix file path and PCA fit file path from the text fields,
-     * loads the PCA model and compressed matrix, decodes the matrix using the PCA model,
-     * converts the result to a scaled image, and saves the image as "decoded_output.png".
+     * loads the PCA model and the {@link EncodedImage} (or a legacy serialized matrix), reconstructs
+     * the image from the coefficients with {@link ImageUtils#decodeToImage(PCA, Matrix, int, int)},
+     * and saves the image as "decoded_output.png".
      * </p>
      *
      * @throws IOException if an I/O error occurs during file operations
@@ -66,17 +67,26 @@ public class DecodeController {
         String pcaPath    = fitTextField.getText();
 
         PCA loadedPCA = PCA.loadFromFile(pcaPath);
-        Matrix mat     = Matrix.loadFromFile(matrixPath);
-        Matrix imat    = loadedPCA.decode(mat);
-
-        BufferedImage decodedImage = ImageUtils.rowMatrixToImage(imat, (int) Math.sqrt(imat.getWidth()*imat.getHeight()/3),(int) Math.sqrt(imat.getWidth()*imat.getHeight()/3));
+        Matrix mat;
+        int width;
+        int height;
+        if (EncodedImage.isEncodedImage(matrixPath)) {
+            EncodedImage encoded = EncodedImage.loadFromFile(matrixPath);
+            mat    = encoded.dequantize(loadedPCA);
+            width  = encoded.getWidth();
+            height = encoded.getHeight();
+        } else {
+            // Legacy serialized coefficient matrix of a square image.
+            mat    = Matrix.loadFromFile(matrixPath);
+            width  = (int) Math.sqrt(loadedPCA.avg.getWidth() / 3);
+            height = width;
+        }
+        BufferedImage decodedImage = ImageUtils.decodeToImage(loadedPCA, mat, width, height);
         File out = new File("decoded_output.png");
         ImageIO.write(decodedImage, "png", out);
         System.out.println("Decoded image saved to: " + out.getAbsolutePath());
         System.out.println("encoded");
         System.out.println(mat);
-        System.out.println("mefuanah");
-        System.out.println(imat);
     }
 
     /**
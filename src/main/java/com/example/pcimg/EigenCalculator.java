@@ -0,0 +1,318 @@
+package com.example.pcimg;
+
+/**
+ * Eigen decomposition of real symmetric matrices such as feature covariances.
+ * <p>
+ * The matrix is first reduced to symmetric tridiagonal form with Householder reflections,
+ * and the tridiagonal matrix is then diagonalized with the implicitly shifted QL algorithm
+ * (the EISPACK {@code tred2}/{@code tql2} pair). Both stages are O(n^3) and iterate until the
+ * off-diagonal elements are negligible relative to machine precision, rather than for a fixed
+ * number of sweeps.
+ * </p>
+ * <p>
+ * All work is done in a single n x n row-major array that is reused for the reduction, the
+ * accumulated orthogonal transform and finally the eigenvectors. The O(n^2) per-step updates of
+ * the reduction and the eigenvector rotations of each QL sweep run on the {@link ComputePool}.
+ * </p>
+ */
+public class EigenCalculator {
+
+    /** Upper bound on QL iterations spent on a single eigenvalue before giving up. */
+    private static final int MAX_ITERATIONS = 60;
+
+    private static final double EPS = Math.ulp(1.0);
+
+    private EigenCalculator() {
+    }
+
+    /**
+     * Computes the eigenvalues and eigenvectors of a symmetric matrix.
+     * <p>
+     * Only symmetry is assumed; the result is unspecified for non-symmetric input.
+     * Eigenvalues are returned in ascending order.
+     * </p>
+     *
+     * @param A the symmetric matrix to decompose
+     * @return a {@link Matrix.Pair} where the first element is a diagonal matrix of eigenvalues and the
+     *         second element is the matrix whose columns are the corresponding unit eigenvectors
+     * @throws ArithmeticException if the matrix is not square or the QL iteration fails to converge
+     */
+    public static Matrix.Pair calculateEigen(Matrix A) {
+        int n = A.getHeight();
+        if (n != A.getWidth()) {
+            throw new ArithmeticException("Eigen decomposition requires a square matrix");
+        }
+        double[] a = A.toRowMajorArray();
+        double[] d = new double[n];
+        double[] e = new double[n];
+        if (n > 0) {
+            tridiagonalize(a, n, d, e);
+            tridiagonalQL(a, n, d, e);
+        }
+
+        Matrix D = Matrix.zeros(n, n);
+        for (int i = 0; i < n; i++) {
+            D.set(i, i, d[i]);
+        }
+        // Row i of the work array holds the eigenvector of d[i]; the transposed view has them as columns.
+        Matrix V = new Matrix(n, n, a).transpose();
+        return new Matrix.Pair(D, V);
+    }
+
+    /**
+     * Reduces the symmetric matrix in {@code a} to tridiagonal form T = Q^T A Q.
+     * <p>
+     * On return {@code d} holds the diagonal of T, {@code e[i]} the element T(i, i-1)
+     * (with {@code e[0] = 0}) and {@code a} holds Q^T, i.e. row i of {@code a} is column i of Q.
+     * </p>
+     *
+     * @param a the row-major n x n symmetric matrix; overwritten with Q^T
+     * @param n the matrix order
+     * @param d output diagonal
+     * @param e output sub-diagonal
+     */
+    private static void tridiagonalize(double[] a, int n, double[] d, double[] e) {
+        double[] hh = new double[n];
+        double[] p = new double[n];
+
+        // Annihilate row i left of the sub-diagonal with a reflector H = I - u u^T / h acting on
+        // indices [0, i). The full symmetric leading block is kept so every update is row-contiguous.
+        for (int i = n - 1; i > 0; i--) {
+            int rowI = i * n;
+            d[i] = a[rowI + i];
+            double scale = 0;
+            for (int k = 0; k < i; k++) {
+                scale += Math.abs(a[rowI + k]);
+            }
+            if (scale == 0) {
+                e[i] = 0;
+                continue;
+            }
+            double h = 0;
+            for (int k = 0; k < i; k++) {
+                a[rowI + k] /= scale;
+                h += a[rowI + k] * a[rowI + k];
+            }
+            double f = a[rowI + i - 1];
+            double g = f > 0 ? -Math.sqrt(h) : Math.sqrt(h);
+            e[i] = scale * g;
+            h -= f * g;
+            a[rowI + i - 1] = f - g;
+            hh[i] = h;
+
+            // p = A u / h over the leading i x i block.
+            int len = i;
+            double hInv = 1.0 / h;
+            ComputePool.parallelFor(0, len, len, (from, to) -> {
+                for (int j = from; j < to; j++) {
+                    int rowJ = j * n;
+                    double sum = 0;
+                    for (int k = 0; k < len; k++) {
+                        sum += a[rowJ + k] * a[rowI + k];
+                    }
+                    p[j] = sum * hInv;
+                }
+            });
+            double K = 0;
+            for (int j = 0; j < len; j++) {
+                K += a[rowI + j] * p[j];
+            }
+            K *= 0.5 * hInv;
+            for (int j = 0; j < len; j++) {
+                p[j] -= K * a[rowI + j];
+            }
+
+            // A := A - u q^T - q u^T, with q stored in p.
+            ComputePool.parallelFor(0, len, 2L * len, (from, to) -> {
+                for (int j = from; j < to; j++) {
+                    int rowJ = j * n;
+                    double uj = a[rowI + j];
+                    double qj = p[j];
+                    for (int k = 0; k < len; k++) {
+                        a[rowJ + k] -= uj * p[k] + qj * a[rowI + k];
+                    }
+                }
+            });
+        }
+        d[0] = a[0];
+        e[0] = 0;
+
+        // Accumulate Q^T = H_1 H_2 ... H_{n-1} in place. Before step i the leading i x i block holds
+        // the partial product and row i still holds the reflector u_i.
+        double[] u = new double[n];
+        a[0] = 1;
+        for (int i = 1; i < n; i++) {
+            int rowI = i * n;
+            double h = hh[i];
+            if (h != 0) {
+                System.arraycopy(a, rowI, u, 0, i);
+                int len = i;
+                double hInv = 1.0 / h;
+                ComputePool.parallelFor(0, len, 2L * len, (from, to) -> {
+                    for (int r = from; r < to; r++) {
+                        int rowR = r * n;
+                        double y = 0;
+                        for (int c = 0; c < len; c++) {
+                            y += a[rowR + c] * u[c];
+                        }
+                        y *= hInv;
+                        for (int c = 0; c < len; c++) {
+                            a[rowR + c] -= y * u[c];
+                        }
+                    }
+                });
+            }
+            for (int c = 0; c < i; c++) {
+                a[rowI + c] = 0;
+                a[c * n + i] = 0;
+            }
+            a[rowI + i] = 1;
+        }
+    }
+
+    /**
+     * Diagonalizes a symmetric tridiagonal matrix with the implicitly shifted QL algorithm,
+     * applying every rotation to the rows of {@code z}.
+     *
+     * @param z the row-major n x n transform whose rows become the eigenvectors
+     * @param n the matrix order
+     * @param d on input the diagonal, on output the eigenvalues in ascending order
+     * @param e on input the sub-diagonal as produced by {@link #tridiagonalize}; destroyed
+     * @throws ArithmeticException if an eigenvalue does not converge
+     */
+    private static void tridiagonalQL(double[] z, int n, double[] d, double[] e) {
+        for (int i = 1; i < n; i++) {
+            e[i - 1] = e[i];
+        }
+        e[n - 1] = 0;
+
+        double[] cs = new double[n];
+        double[] sn = new double[n];
+        double f = 0;
+        double tst1 = 0;
+        for (int l = 0; l < n; l++) {
+            // Find the first negligible sub-diagonal element at or after l.
+            tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+            int m = l;
+            while (m < n - 1 && Math.abs(e[m]) > EPS * tst1) {
+                m++;
+            }
+
+            int iter = 0;
+            while (m > l && Math.abs(e[l]) > EPS * tst1) {
+                if (++iter > MAX_ITERATIONS) {
+                    throw new ArithmeticException("Eigenvalue " + l + " did not converge");
+                }
+                // Wilkinson-style shift from the leading 2 x 2 block.
+                double g = d[l];
+                double p = (d[l + 1] - g) / (2.0 * e[l]);
+                double r = hypot(p, 1.0);
+                if (p < 0) {
+                    r = -r;
+                }
+                d[l] = e[l] / (p + r);
+                d[l + 1] = e[l] * (p + r);
+                double dl1 = d[l + 1];
+                double h = g - d[l];
+                for (int i = l + 2; i < n; i++) {
+                    d[i] -= h;
+                }
+                f += h;
+
+                // Implicit QL sweep from m - 1 down to l.
+                p = d[m];
+                double c = 1;
+                double c2 = c;
+                double c3 = c;
+                double el1 = e[l + 1];
+                double s = 0;
+                double s2 = 0;
+                for (int i = m - 1; i >= l; i--) {
+                    c3 = c2;
+                    c2 = c;
+                    s2 = s;
+                    g = c * e[i];
+                    h = c * p;
+                    r = hypot(p, e[i]);
+                    e[i + 1] = s * r;
+                    s = e[i] / r;
+                    c = p / r;
+                    p = c * d[i] - s * g;
+                    d[i + 1] = h + s * (c * g + s * d[i]);
+                    cs[i] = c;
+                    sn[i] = s;
+                }
+                applyRotations(z, n, cs, sn, l, m);
+                p = -s * s2 * c3 * el1 * e[l] / dl1;
+                e[l] = s * p;
+                d[l] = c * p;
+            }
+            d[l] += f;
+            e[l] = 0;
+        }
+
+        sortAscending(z, n, d);
+    }
+
+    /**
+     * Applies the plane rotations of one QL sweep, in sweep order, to rows {@code l..m} of {@code z}.
+     * Each column is independent, so columns are split across the compute pool.
+     */
+    private static void applyRotations(double[] z, int n, double[] cs, double[] sn, int l, int m) {
+        ComputePool.parallelFor(0, n, 6L * (m - l), (from, to) -> {
+            for (int i = m - 1; i >= l; i--) {
+                double c = cs[i];
+                double s = sn[i];
+                int row0 = i * n;
+                int row1 = row0 + n;
+                for (int k = from; k < to; k++) {
+                    double h = z[row1 + k];
+                    double zk = z[row0 + k];
+                    z[row1 + k] = s * zk + c * h;
+                    z[row0 + k] = c * zk - s * h;
+                }
+            }
+        });
+    }
+
+    /**
+     * Sorts the eigenvalues ascending, permuting the eigenvector rows of {@code z} to match.
+     */
+    private static void sortAscending(double[] z, int n, double[] d) {
+        double[] tmp = new double[n];
+        for (int i = 0; i < n - 1; i++) {
+            int k = i;
+            for (int j = i + 1; j < n; j++) {
+                if (d[j] < d[k]) {
+                    k = j;
+                }
+            }
+            if (k != i) {
+                double t = d[k];
+                d[k] = d[i];
+                d[i] = t;
+                System.arraycopy(z, i * n, tmp, 0, n);
+                System.arraycopy(z, k * n, z, i * n, n);
+                System.arraycopy(tmp, 0, z, k * n, n);
+            }
+        }
+    }
+
+    /**
+     * Computes sqrt(a^2 + b^2) without intermediate overflow or underflow.
+     */
+    private static double hypot(double a, double b) {
+        double x = Math.abs(a);
+        double y = Math.abs(b);
+        if (x < y) {
+            double t = x;
+            x = y;
+            y = t;
+        }
+        if (x == 0) {
+            return 0;
+        }
+        double ratio = y / x;
+        return x * Math.sqrt(1 + ratio * ratio);
+    }
+}
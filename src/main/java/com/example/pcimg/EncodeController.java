@@ -112,7 +112,8 @@ public class EncodeController {
      * <p>
      * The method reads the image file path and PCA fit file path from the text fields,
      * loads the PCA model, and reads the image file. It then converts the image to a row matrix,
-     * encodes it using the PCA model, and saves the encoded matrix to a binary file.
+     * encodes it using the PCA model, and saves the coefficients quantized to 8 bits and entropy coded
+     * as an {@link EncodedImage}.
      * Finally, it prints the dimensions of the encoded matrix.
      * </p>
      *
@@ -130,7 +131,9 @@ public class EncodeController {
         Matrix imgRow = ImageUtils.imageToRGBRowMatrix(img);
         Matrix encoded = loadedPCA.encode(imgRow);
         System.out.println(loadedPCA.getEigenvector(0).norm());
-        encoded.saveToFile("encoded_matrix.bin");
+        EncodedImage quantized = EncodedImage.quantize(encoded, img.getWidth(), img.getHeight(), loadedPCA,
+                EncodedImage.Quantization.INT8).entropyCoded();
+        quantized.saveToFile("encoded_matrix.bin");
 
         System.out.println("Encoded shape: " + encoded.getHeight() + "×" + encoded.getWidth());
     }
@@ -0,0 +1,473 @@
+package com.example.pcimg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Single-file container of many {@link EncodedImage}s with a random-access index.
+ * <p>
+ * The file starts with a {@value #HEADER_BYTES}-byte little-endian header: the magic {@code "PCEA"},
+ * the format version, the model fingerprint shared by all images, the image count and the offset of
+ * the index. The images follow in their {@link EncodedImage#writeTo(ByteBuffer)} form, and the index,
+ * written after them, holds the offset of every image as a long followed by the size of every image
+ * as an int. Images are identified by their position in the archive, starting at 0.
+ * </p>
+ * <p>
+ * The header is the only commit point. {@link #append(String)} writes the new images after the old
+ * index, and {@link Writer#close()} writes the new index after them, forces the data to disk and only
+ * then rewrites the header. Until that last write the header still describes the old images and
+ * index, so an append that fails or is never closed leaves the archive as it was, plus unused bytes
+ * at the end.
+ * </p>
+ * <p>
+ * The price is that every append leaves the index it replaces, 12 bytes per image already in the
+ * archive, as unused space between the old and the new images, so an archive that receives many
+ * small appends grows by the sum of its past index sizes. {@link Reader#getUnusedBytes()} reports
+ * that space and {@link #compact(String)} reclaims it by rewriting the archive.
+ * </p>
+ * <p>
+ * A {@link Reader} memory-maps the file once, so reading image {@code n} is a lookup in the index
+ * and a parse of already mapped bytes, with no file to open. A reader may be shared between threads.
+ * </p>
+ */
+public final class EncodedArchive {
+
+    /** Size of the archive header in bytes. */
+    public static final int HEADER_BYTES = 32;
+
+    private static final int MAGIC = 'P' | 'C' << 8 | 'E' << 16 | 'A' << 24;
+    private static final int VERSION = 2;
+
+    /** Size of the mapped segments; an image crossing a segment boundary is mapped on its own. */
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private EncodedArchive() {
+    }
+
+    /**
+     * Creates a new, empty archive, replacing any existing file.
+     *
+     * @param filename the path of the archive
+     * @param modelId  the {@link PCA#getModelId()} of the model all images are encoded with
+     * @return a writer positioned at the first image
+     * @throws IOException if the file cannot be created
+     */
+    public static Writer create(String filename, long modelId) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new Writer(channel, modelId, new long[16], new int[16], 0, HEADER_BYTES);
+    }
+
+    /**
+     * Opens an existing archive to add more images after the ones it holds. The archive keeps its old
+     * contents until the writer is closed, which writes a new index and then commits it in the header.
+     *
+     * @param filename the path of the archive
+     * @return a writer positioned after the last image
+     * @throws IOException if the file cannot be read or is not an archive
+     */
+    public static Writer append(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = readHeader(channel, filename);
+            int count = header.getInt(16);
+            long indexOffset = header.getLong(24);
+            long[] offsets = new long[Math.max(16, count)];
+            int[] sizes = new int[offsets.length];
+            readIndex(channel, indexOffset, count, offsets, sizes, filename);
+            return new Writer(channel, header.getLong(8), offsets, sizes, count, indexOffset + indexBytes(count));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an archive for reading.
+     *
+     * @param filename the path of the archive
+     * @return the reader
+     * @throws IOException if the file cannot be read or is not an archive
+     */
+    public static Reader open(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, filename);
+            int count = header.getInt(16);
+            long[] offsets = new long[count];
+            int[] sizes = new int[count];
+            readIndex(channel, header.getLong(24), count, offsets, sizes, filename);
+            long size = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int s = 0; s < segments.length; s++) {
+                long start = s * SEGMENT_BYTES;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, size - start));
+            }
+            long unused = size - HEADER_BYTES - indexBytes(count);
+            for (int i = 0; i < count; i++) {
+                unused -= sizes[i];
+            }
+            return new Reader(filename, header.getLong(8), offsets, sizes, count, segments, unused);
+        }
+    }
+
+    /**
+     * Rewrites an archive with its images packed in id order and a single index, reclaiming the old
+     * indexes left by appends and the data of appends that were never closed. Image ids are kept.
+     * <p>
+     * The packed archive is written to a temporary file next to the original, forced to disk and then
+     * moved over it, so a failure at any point leaves the original archive intact. Readers opened
+     * before the move keep reading the old file where the platform allows it; open a new reader
+     * afterwards.
+     * </p>
+     *
+     * @param filename the path of the archive
+     * @return the number of bytes reclaimed
+     * @throws IOException if the archive cannot be read or the packed copy cannot be written
+     */
+    public static long compact(String filename) throws IOException {
+        Path path = Paths.get(filename);
+        Path packed = path.resolveSibling(path.getFileName() + ".compact");
+        long before = Files.size(path);
+        Reader reader = open(filename);
+        try (Writer writer = create(packed.toString(), reader.getModelId())) {
+            for (int id = 0; id < reader.size(); id++) {
+                writer.addBytes(reader.bytes(id));
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(packed);
+            throw e;
+        }
+        Files.move(packed, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return before - Files.size(path);
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel, String filename) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // keep reading until the header is complete or the file ends
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+            throw new IOException("Not an encoded image archive: " + filename);
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported archive version " + header.getInt(4) + ": " + filename);
+        }
+        return header;
+    }
+
+    /**
+     * Returns the size of the index of {@code count} images.
+     */
+    private static long indexBytes(int count) {
+        return 12L * count;
+    }
+
+    /**
+     * Reads the offsets and sizes of {@code count} images into the first {@code count} entries of the
+     * arrays, checking that every image lies between the header and the index.
+     */
+    private static void readIndex(FileChannel channel, long indexOffset, int count, long[] offsets, int[] sizes,
+                                  String filename) throws IOException {
+        long indexBytes = indexBytes(count);
+        if (count < 0 || indexOffset < HEADER_BYTES || channel.size() < indexOffset + indexBytes
+                || indexBytes > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt archive index: " + filename);
+        }
+        ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        index.asLongBuffer().get(offsets, 0, count);
+        index.position(8 * count);
+        index.asIntBuffer().get(sizes, 0, count);
+        for (int i = 0; i < count; i++) {
+            if (offsets[i] < HEADER_BYTES || sizes[i] < 0 || offsets[i] + sizes[i] > indexOffset) {
+                throw new IOException("Corrupt archive index: " + filename);
+            }
+        }
+    }
+
+    /**
+     * Appends images to an archive. Images are buffered and written sequentially; the index and the
+     * header are written by {@link #close()}, so the images only become part of the archive when
+     * their writer is closed. Writers are not thread-safe.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final long modelId;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private long[] offsets;
+        private int[] sizes;
+        private int count;
+        /** File offset at which the buffered bytes start. */
+        private long written;
+
+        private Writer(FileChannel channel, long modelId, long[] offsets, int[] sizes, int count, long start) {
+            this.channel = channel;
+            this.modelId = modelId;
+            this.offsets = offsets;
+            this.sizes = sizes;
+            this.count = count;
+            this.written = start;
+        }
+
+        /**
+         * Appends an image.
+         *
+         * @param image the encoded image
+         * @return the id of the image in the archive
+         * @throws IOException              if the image cannot be written
+         * @throws IllegalArgumentException if the image was encoded with a different model
+         */
+        public int add(EncodedImage image) throws IOException {
+            if (image.getModelId() != modelId) {
+                throw new IllegalArgumentException("Image was encoded with a different model ("
+                        + Long.toHexString(image.getModelId()) + ", not " + Long.toHexString(modelId) + ")");
+            }
+            int size = image.getEncodedSize();
+            long offset = reserve(size);
+            if (buffer.remaining() < size) {
+                ByteBuffer large = ByteBuffer.allocate(size);
+                image.writeTo(large);
+                large.flip();
+                write(large);
+            } else {
+                image.writeTo(buffer);
+            }
+            return record(offset, size);
+        }
+
+        /**
+         * Appends the stored bytes of an image of this archive's model, as returned by
+         * {@link Reader#bytes(int)}, without parsing them.
+         */
+        private int addBytes(ByteBuffer bytes) throws IOException {
+            int size = bytes.remaining();
+            long offset = reserve(size);
+            if (buffer.remaining() < size) {
+                write(bytes.duplicate());
+            } else {
+                buffer.put(bytes.duplicate());
+            }
+            return record(offset, size);
+        }
+
+        /**
+         * Makes room for an image of {@code size} bytes, flushing the buffer if it would not fit.
+         *
+         * @return the file offset at which the image will start
+         */
+        private long reserve(int size) throws IOException {
+            if (indexBytes(count + 1) > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Archive is full");
+            }
+            if (buffer.remaining() < size) {
+                flush();
+            }
+            return written + buffer.position();
+        }
+
+        /**
+         * Adds the image at {@code offset} to the index.
+         *
+         * @return its id
+         */
+        private int record(long offset, int size) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                sizes = Arrays.copyOf(sizes, sizes.length * 2);
+            }
+            offsets[count] = offset;
+            sizes[count] = size;
+            return count++;
+        }
+
+        /**
+         * Returns the number of images in the archive so far.
+         *
+         * @return the image count
+         */
+        public int size() {
+            return count;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Writes {@code data} at the end of the flushed part of the file; the buffer must be empty
+         * unless {@code data} is the buffer itself.
+         */
+        private void write(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                written += channel.write(data, written);
+            }
+        }
+
+        /**
+         * Writes the index after the images, forces both to disk and then commits them by rewriting
+         * the header, and closes the file.
+         *
+         * @throws IOException if the file cannot be written; the header is then left unchanged
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                long indexOffset = written;
+                ByteBuffer index = ByteBuffer.allocate((int) indexBytes(count)).order(ByteOrder.LITTLE_ENDIAN);
+                index.asLongBuffer().put(offsets, 0, count);
+                index.position(8 * count);
+                index.asIntBuffer().put(sizes, 0, count);
+                index.rewind();
+                while (index.hasRemaining()) {
+                    channel.write(index, indexOffset + index.position());
+                }
+                channel.truncate(indexOffset + indexBytes(count));
+                channel.force(false);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putLong(modelId).putInt(count).putInt(0)
+                        .putLong(indexOffset).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Random-access and sequential reader over a memory-mapped archive.
+     */
+    public static final class Reader {
+        private final String filename;
+        private final long modelId;
+        private final long[] offsets;
+        private final int[] sizes;
+        private final int count;
+        private final MappedByteBuffer[] segments;
+        private final long unusedBytes;
+
+        private Reader(String filename, long modelId, long[] offsets, int[] sizes, int count,
+                       MappedByteBuffer[] segments, long unusedBytes) {
+            this.filename = filename;
+            this.modelId = modelId;
+            this.offsets = offsets;
+            this.sizes = sizes;
+            this.count = count;
+            this.segments = segments;
+            this.unusedBytes = unusedBytes;
+        }
+
+        /**
+         * Returns the number of bytes of the file that belong to no image and not to the current index:
+         * the indexes replaced by appends and the data of appends that were never closed. They can be
+         * reclaimed with {@link EncodedArchive#compact(String)}.
+         *
+         * @return the unused size in bytes
+         */
+        public long getUnusedBytes() {
+            return unusedBytes;
+        }
+
+        /**
+         * Returns the fingerprint of the model all images are encoded with.
+         *
+         * @return the {@link PCA#getModelId()} of the encoding model
+         */
+        public long getModelId() {
+            return modelId;
+        }
+
+        /**
+         * Returns the number of images.
+         *
+         * @return the image count
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Reads one image.
+         *
+         * @param id the id of the image, {@code 0 <= id < size()}
+         * @return the encoded image
+         * @throws IOException               if the image data is corrupt
+         * @throws IndexOutOfBoundsException if {@code id} is out of range
+         */
+        public EncodedImage get(int id) throws IOException {
+            return EncodedImage.readFrom(bytes(id));
+        }
+
+        /**
+         * Returns the stored bytes of one image without parsing them.
+         *
+         * @param id the id of the image, {@code 0 <= id < size()}
+         * @return a read-only buffer over the image's bytes
+         * @throws IOException               if the image cannot be mapped
+         * @throws IndexOutOfBoundsException if {@code id} is out of range
+         */
+        public ByteBuffer bytes(int id) throws IOException {
+            if (id < 0 || id >= count) {
+                throw new IndexOutOfBoundsException("Image " + id + " outside archive of " + count + " images");
+            }
+            long start = offsets[id];
+            int length = sizes[id];
+            int segment = (int) (start / SEGMENT_BYTES);
+            int offset = (int) (start % SEGMENT_BYTES);
+            if (offset + (long) length <= segments[segment].capacity()) {
+                return segments[segment].slice(offset, length).asReadOnlyBuffer();
+            }
+            try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+
+        /**
+         * Visits the images {@code [from, to)} in order, reading the mapped file sequentially.
+         *
+         * @param from    the first image id, inclusive
+         * @param to      the last image id, exclusive
+         * @param visitor receives every image with its id
+         * @throws IOException               if an image is corrupt or the visitor fails
+         * @throws IndexOutOfBoundsException if the range is out of bounds
+         */
+        public void scan(int from, int to, Visitor visitor) throws IOException {
+            if (from < 0 || to > count || from > to) {
+                throw new IndexOutOfBoundsException("Images [" + from + ", " + to + ") outside archive of "
+                        + count + " images");
+            }
+            for (int id = from; id < to; id++) {
+                visitor.visit(id, get(id));
+            }
+        }
+    }
+
+    /**
+     * Receives images from {@link Reader#scan(int, int, Visitor)}.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * Processes one image.
+         *
+         * @param id    the id of the image in the archive
+         * @param image the encoded image
+         * @throws IOException if processing fails
+         */
+        void visit(int id, EncodedImage image) throws IOException;
+    }
+}
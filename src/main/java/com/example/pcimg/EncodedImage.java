@@ -0,0 +1,481 @@
+package com.example.pcimg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact, quantized PCA coefficients of an image.
+ * <p>
+ * Each coefficient is stored as a signed 8- or 16-bit integer {@code q} and restored as
+ * {@code offset + scale * q} with a scale and offset per component. When the model knows its component
+ * variances ({@link PCA#getEigenvalues()}), the scale is derived from them: component {@code i} is
+ * clipped to {@code +-clipSigmas * sqrt(eigenvalue_i)} and that range is spread over the integer range,
+ * so high-variance components get coarse steps and low-variance ones fine steps. These parameters are
+ * recomputed by the decoder from the same model and are not stored. For models without eigenvalues
+ * the range of each component is taken from the coefficients themselves and stored in the file.
+ * </p>
+ * <p>
+ * The encoding is little-endian:
+ * </p>
+ * <pre>
+ *   0  magic "PCEI"
+ *   4  int   format version ({@value #VERSION})
+ *   8  int   image width
+ *  12  int   image height
+ *  16  long  model fingerprint ({@link PCA#getModelId()})
+ *  24  int   rows
+ *  28  int   components per row
+ *  32  byte  bits per coefficient (8 or 16)
+ *  33  byte  flags; bit 0 set if per-component scale/offset pairs follow the header,
+ *              bit 1 set if the coefficients are entropy coded
+ *  34  short reserved, 0
+ *  36  float clip range in standard deviations
+ *  40  [float scale, float offset] per component, if flagged
+ *      rows x components coefficients, or
+ *      int length followed by that many bytes of {@link CoefficientCoder} output
+ * </pre>
+ */
+public class EncodedImage {
+
+    /** Size of the fixed header in bytes. */
+    public static final int HEADER_BYTES = 40;
+
+    /** Default clip range in standard deviations of each component. */
+    public static final float DEFAULT_CLIP_SIGMAS = 4f;
+
+    private static final int MAGIC = 'P' | 'C' << 8 | 'E' << 16 | 'I' << 24;
+    private static final int VERSION = 1;
+    private static final int FLAG_PARAMETERS = 1;
+    private static final int FLAG_ENTROPY = 2;
+
+    /**
+     * Integer width of the stored coefficients.
+     */
+    public enum Quantization {
+        /** One byte per coefficient, 255 levels. */
+        INT8(8),
+        /** Two bytes per coefficient, 65535 levels. */
+        INT16(16);
+
+        private final int bits;
+
+        Quantization(int bits) {
+            this.bits = bits;
+        }
+
+        /**
+         * Returns the number of bits per coefficient.
+         *
+         * @return 8 or 16
+         */
+        public int getBits() {
+            return bits;
+        }
+
+        /**
+         * Returns the largest stored magnitude; the range is symmetric.
+         *
+         * @return 127 or 32767
+         */
+        int maxLevel() {
+            return (1 << (bits - 1)) - 1;
+        }
+
+        private static Quantization ofBits(int bits) throws IOException {
+            for (Quantization q : values()) {
+                if (q.bits == bits) {
+                    return q;
+                }
+            }
+            throw new IOException("Unsupported coefficient width: " + bits);
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final long modelId;
+    private final int rows;
+    private final int cols;
+    private final Quantization quantization;
+    private final float clipSigmas;
+    private final float[] scales;
+    private final float[] offsets;
+    private final boolean storedParameters;
+    private final short[] values;
+
+    /** The {@link CoefficientCoder} form of {@link #values}, or {@code null} if stored as plain integers. */
+    private final byte[] compressed;
+
+    private EncodedImage(int width, int height, long modelId, int rows, int cols, Quantization quantization,
+                         float clipSigmas, float[] scales, float[] offsets, boolean storedParameters,
+                         short[] values, byte[] compressed) {
+        this.width = width;
+        this.height = height;
+        this.modelId = modelId;
+        this.rows = rows;
+        this.cols = cols;
+        this.quantization = quantization;
+        this.clipSigmas = clipSigmas;
+        this.scales = scales;
+        this.offsets = offsets;
+        this.storedParameters = storedParameters;
+        this.values = values;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Quantizes coefficients produced by {@link PCA#encode(Matrix)} with the {@link #DEFAULT_CLIP_SIGMAS}.
+     *
+     * @param coefficients the encoded image, one row of components per encoded vector
+     * @param width        the image width in pixels
+     * @param height       the image height in pixels
+     * @param model        the model that produced the coefficients
+     * @param quantization the integer width of the stored coefficients
+     * @return the quantized image
+     * @throws IllegalArgumentException if the coefficient width does not match the model
+     */
+    public static EncodedImage quantize(Matrix coefficients, int width, int height, PCA model,
+                                        Quantization quantization) {
+        return quantize(coefficients, width, height, model, quantization, DEFAULT_CLIP_SIGMAS);
+    }
+
+    /**
+     * Quantizes coefficients produced by {@link PCA#encode(Matrix)}.
+     *
+     * @param coefficients the encoded image, one row of components per encoded vector
+     * @param width        the image width in pixels
+     * @param height       the image height in pixels
+     * @param model        the model that produced the coefficients
+     * @param quantization the integer width of the stored coefficients
+     * @param clipSigmas   the clip range in standard deviations of each component
+     * @return the quantized image
+     * @throws IllegalArgumentException if the coefficient width does not match the model or
+     *                                  {@code clipSigmas} is not positive
+     */
+    public static EncodedImage quantize(Matrix coefficients, int width, int height, PCA model,
+                                        Quantization quantization, float clipSigmas) {
+        return quantize(coefficients, width, height, model, model.getModelId(), quantization, clipSigmas);
+    }
+
+    /**
+     * Quantizes coefficients produced by {@link PCA#encode(Matrix)}, recording {@code modelId}, which
+     * must be {@code model.getModelId()}, as the fingerprint.
+     */
+    static EncodedImage quantize(Matrix coefficients, int width, int height, PCA model, long modelId,
+                                 Quantization quantization, float clipSigmas) {
+        int rows = coefficients.getHeight();
+        int cols = coefficients.getWidth();
+        if (model.v == null || cols != model.v.getWidth()) {
+            throw new IllegalArgumentException("Coefficients have " + cols + " components but the model has "
+                    + (model.v == null ? 0 : model.v.getWidth()));
+        }
+        if (!(clipSigmas > 0)) {
+            throw new IllegalArgumentException("Clip range must be positive: " + clipSigmas);
+        }
+        int maxLevel = quantization.maxLevel();
+        float[] scales = new float[cols];
+        float[] offsets = new float[cols];
+        boolean stored = !deriveParameters(model.getEigenvalues(), cols, quantization, clipSigmas, scales, offsets);
+        if (stored) {
+            // No variances known: use the observed range of each component.
+            for (int c = 0; c < cols; c++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int r = 0; r < rows; r++) {
+                    min = Math.min(min, coefficients.get(r, c));
+                    max = Math.max(max, coefficients.get(r, c));
+                }
+                offsets[c] = rows == 0 ? 0 : (float) ((max + min) / 2);
+                scales[c] = rows == 0 ? 0 : (float) ((max - min) / (2.0 * maxLevel));
+            }
+        }
+
+        short[] values = new short[Math.multiplyExact(rows, cols)];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                double q = scales[c] == 0 ? 0 : Math.rint((coefficients.get(r, c) - offsets[c]) / scales[c]);
+                values[r * cols + c] = (short) Math.max(-maxLevel, Math.min(maxLevel, q));
+            }
+        }
+        return new EncodedImage(width, height, modelId, rows, cols, quantization, clipSigmas, scales, offsets,
+                stored, values, null);
+    }
+
+    /**
+     * Returns a copy of this image whose coefficients are written entropy coded with
+     * {@link CoefficientCoder}. The coding is lossless: {@link #dequantize(PCA)} gives the same result.
+     *
+     * @return the entropy-coded image, or this image if it is already entropy coded
+     */
+    public EncodedImage entropyCoded() {
+        if (compressed != null) {
+            return this;
+        }
+        return new EncodedImage(width, height, modelId, rows, cols, quantization, clipSigmas, scales, offsets,
+                storedParameters, values, CoefficientCoder.encode(values, rows, cols));
+    }
+
+    /**
+     * Returns whether the coefficients are written entropy coded.
+     *
+     * @return {@code true} if created by {@link #entropyCoded()} or read from an entropy-coded stream
+     */
+    public boolean isEntropyCoded() {
+        return compressed != null;
+    }
+
+    /**
+     * Fills the per-component scale and offset from the model's component variances.
+     *
+     * @return {@code false} if the variances are unavailable
+     */
+    private static boolean deriveParameters(double[] eigenvalues, int cols, Quantization quantization,
+                                            float clipSigmas, float[] scales, float[] offsets) {
+        if (eigenvalues == null || eigenvalues.length != cols) {
+            return false;
+        }
+        for (int c = 0; c < cols; c++) {
+            scales[c] = (float) (clipSigmas * Math.sqrt(Math.max(0, eigenvalues[c])) / quantization.maxLevel());
+            offsets[c] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Restores the coefficients for decoding with {@link PCA#decode(Matrix)}.
+     *
+     * @param model the model that produced the coefficients
+     * @return a rows x components {@code Matrix}
+     * @throws IllegalArgumentException if {@code model} is not the model the image was encoded with
+     */
+    public Matrix dequantize(PCA model) {
+        return dequantize(model, model.getModelId());
+    }
+
+    /**
+     * Restores the coefficients for decoding with {@link PCA#decode(Matrix)}, checking the image
+     * against {@code modelId}, which must be {@code model.getModelId()}.
+     */
+    Matrix dequantize(PCA model, long modelId) {
+        if (modelId != this.modelId) {
+            throw new IllegalArgumentException("Image was encoded with a different model ("
+                    + Long.toHexString(this.modelId) + ", not " + Long.toHexString(modelId) + ")");
+        }
+        float[] scale = scales;
+        float[] offset = offsets;
+        if (!storedParameters) {
+            scale = new float[cols];
+            offset = new float[cols];
+            deriveParameters(model.getEigenvalues(), cols, quantization, clipSigmas, scale, offset);
+        }
+        double[] data = new double[values.length];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                data[r * cols + c] = offset[c] + (double) scale[c] * values[r * cols + c];
+            }
+        }
+        return new Matrix(rows, cols, data);
+    }
+
+    /**
+     * Returns the image width.
+     *
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the image height.
+     *
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the fingerprint of the model the image was encoded with.
+     *
+     * @return the {@link PCA#getModelId()} of the encoding model
+     */
+    public long getModelId() {
+        return modelId;
+    }
+
+    /**
+     * Returns the number of stored coefficients per row.
+     *
+     * @return the component count
+     */
+    public int getComponents() {
+        return cols;
+    }
+
+    /**
+     * Returns the integer width of the stored coefficients.
+     *
+     * @return the quantization
+     */
+    public Quantization getQuantization() {
+        return quantization;
+    }
+
+    /**
+     * Returns the size of the encoded form written by {@link #writeTo(ByteBuffer)}.
+     *
+     * @return the size in bytes
+     */
+    public int getEncodedSize() {
+        int data = compressed != null ? 4 + compressed.length : values.length * quantization.bits / 8;
+        return HEADER_BYTES + (storedParameters ? 8 * cols : 0) + data;
+    }
+
+    /**
+     * Writes the encoded form at the buffer's position, advancing it.
+     *
+     * @param buffer the destination, with at least {@link #getEncodedSize()} bytes remaining
+     */
+    public void writeTo(ByteBuffer buffer) {
+        ByteBuffer out = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putLong(modelId)
+                .putInt(rows).putInt(cols).put((byte) quantization.bits)
+                .put((byte) ((storedParameters ? FLAG_PARAMETERS : 0) | (compressed != null ? FLAG_ENTROPY : 0)))
+                .putShort((short) 0).putFloat(clipSigmas);
+        if (storedParameters) {
+            for (int c = 0; c < cols; c++) {
+                out.putFloat(scales[c]).putFloat(offsets[c]);
+            }
+        }
+        if (compressed != null) {
+            out.putInt(compressed.length).put(compressed);
+        } else if (quantization == Quantization.INT8) {
+            for (short value : values) {
+                out.put((byte) value);
+            }
+        } else {
+            out.asShortBuffer().put(values);
+            out.position(out.position() + 2 * values.length);
+        }
+        buffer.position(out.position());
+    }
+
+    /**
+     * Reads an encoded image at the buffer's position, advancing it.
+     *
+     * @param buffer the source
+     * @return the encoded image
+     * @throws IOException if the data is not an encoded image or is truncated
+     */
+    public static EncodedImage readFrom(ByteBuffer buffer) throws IOException {
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC) {
+            throw new IOException("Not an encoded image");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported encoded image version " + version);
+        }
+        int width = in.getInt();
+        int height = in.getInt();
+        long modelId = in.getLong();
+        int rows = in.getInt();
+        int cols = in.getInt();
+        Quantization quantization = Quantization.ofBits(in.get());
+        int flags = in.get();
+        boolean stored = (flags & FLAG_PARAMETERS) != 0;
+        boolean entropy = (flags & FLAG_ENTROPY) != 0;
+        in.getShort();
+        float clipSigmas = in.getFloat();
+        if (rows < 0 || cols < 0) {
+            throw new IOException("Corrupt encoded image header");
+        }
+        long count = (long) rows * cols;
+        if (in.remaining() < (stored ? 8L * cols : 0) + (entropy ? 4 : count * quantization.bits / 8)) {
+            throw new IOException("Truncated encoded image");
+        }
+        float[] scales = new float[cols];
+        float[] offsets = new float[cols];
+        if (stored) {
+            for (int c = 0; c < cols; c++) {
+                scales[c] = in.getFloat();
+                offsets[c] = in.getFloat();
+            }
+        }
+        short[] values = new short[(int) count];
+        byte[] compressed = null;
+        if (entropy) {
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                throw new IOException("Truncated encoded image");
+            }
+            compressed = new byte[length];
+            in.get(compressed);
+            CoefficientCoder.decode(ByteBuffer.wrap(compressed), values, rows, cols);
+        } else if (quantization == Quantization.INT8) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.get();
+            }
+        } else {
+            in.asShortBuffer().get(values);
+            in.position(in.position() + 2 * values.length);
+        }
+        buffer.position(in.position());
+        return new EncodedImage(width, height, modelId, rows, cols, quantization, clipSigmas, scales, offsets,
+                stored, values, compressed);
+    }
+
+    /**
+     * Saves the encoded image to a file.
+     *
+     * @param filename the path to the file to create or overwrite
+     * @throws IOException if an I/O error occurs while writing the file
+     */
+    public void saveToFile(String filename) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(getEncodedSize());
+        writeTo(buffer);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        System.out.println("Encoded image saved to file: " + filename);
+    }
+
+    /**
+     * Loads an encoded image from a file.
+     *
+     * @param filename the path to the file
+     * @return the encoded image
+     * @throws IOException if the file cannot be read or is not an encoded image
+     */
+    public static EncodedImage loadFromFile(String filename) throws IOException {
+        return readFrom(ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename))));
+    }
+
+    /**
+     * Checks whether a file starts with the encoded image magic number, e.g. to tell it apart from a
+     * legacy serialized {@link Matrix}.
+     *
+     * @param filename the path to the file
+     * @return {@code true} if the file looks like an encoded image
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isEncodedImage(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // keep reading until the magic is complete or the file ends
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+}
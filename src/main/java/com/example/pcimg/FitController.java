@@ -14,13 +14,12 @@ import javafx.stage.Stage;
 import javafx.stage.Window;
 
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 
 public class FitController {
@@ -63,7 +62,8 @@ public class FitController {
     /**
      * Loads a CSV file from the given file path and converts it into a 2D array of doubles.
      * <p>
-     * The method can optionally skip the header row and the first column.
+     * The method can optionally skip the header row and the first column. Parsing is done in parallel
+     * by {@link CSVParser}.
      * </p>
      *
      * @param filePath         the path to the CSV file
@@ -73,29 +73,82 @@ public class FitController {
      * @throws IOException if an I/O error occurs during file reading
      */
     public static double[][] loadCsv(String filePath, boolean skipHeader, boolean skipFirstColumn) throws IOException {
-        int linenum=0;
-        List<double[]> rows = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            if (skipHeader) {
-                br.readLine();
+        return CSVParser.parse(filePath, skipHeader, skipFirstColumn).getValues();
+    }
+
+    /**
+     * Streams a CSV file into a {@link CovarianceAccumulator} without keeping the rows in memory.
+     * <p>
+     * The file is parsed in parallel by {@link CSVParser}. The parsed blocks are folded into
+     * per-thread partial accumulators in parallel, a few blocks at a time, and the partials are merged
+     * at the end, so memory use depends only on the number of columns and the parser's chunk size.
+     * </p>
+     *
+     * @param filePath         the path to the CSV file
+     * @param skipHeader       {@code true} to skip the header row; {@code false} otherwise
+     * @param skipFirstColumn  {@code true} to skip the first column; {@code false} otherwise
+     * @return the accumulated statistics, or {@code null} if the file has no data rows
+     * @throws IOException if an I/O error occurs during file reading
+     */
+    public static CovarianceAccumulator accumulateCsv(String filePath, boolean skipHeader, boolean skipFirstColumn) throws IOException {
+        PartialSums sums = new PartialSums();
+        CSVParser.forEachBlock(filePath, skipHeader, skipFirstColumn, CSVParser.ALL_ROWS, sums);
+        return sums.result();
+    }
+
+    /**
+     * Streams a binary dataset written by {@link BinaryDataset} into a {@link CovarianceAccumulator}.
+     * <p>
+     * The rows are copied out of the memory-mapped file block by block and folded into per-thread
+     * partial accumulators as in {@link #accumulateCsv(String, boolean, boolean)}, so no text is parsed
+     * and only a few blocks are held in memory.
+     * </p>
+     *
+     * @param filePath the path to the dataset file
+     * @return the accumulated statistics, or {@code null} if the dataset has no rows
+     * @throws IOException if the file cannot be read or is not a dataset
+     */
+    public static CovarianceAccumulator accumulateDataset(String filePath) throws IOException {
+        BinaryDataset dataset = BinaryDataset.open(filePath);
+        if (dataset.getRows() == 0) {
+            return null;
+        }
+        PartialSums sums = new PartialSums();
+        dataset.forEachBlock(16 * CovarianceAccumulator.DEFAULT_BLOCK_SIZE, sums);
+        return sums.result();
+    }
+
+    /**
+     * Collects blocks of rows and folds them into per-thread partial accumulators, one block per
+     * partial at a time.
+     */
+    private static final class PartialSums implements Consumer<Matrix> {
+        private final List<Matrix> pending = new ArrayList<>();
+        private CovarianceAccumulator[] partials;
+
+        @Override
+        public void accept(Matrix block) {
+            if (partials == null) {
+                partials = CovarianceAccumulator.partials(block.getWidth());
             }
-            String line;
-            while (((line = br.readLine()) != null)&&(linenum!=35000)) {
-                String[] tokens = line.split(",");
-                int startIndex = skipFirstColumn ? 1 : 0;
-                double[] row = new double[tokens.length - startIndex];
-                for (int i = startIndex; i < tokens.length; i++) {
-                    row[i - startIndex] = Double.parseDouble(tokens[i].trim());
-                }
-                rows.add(row);
-                linenum++;
+            pending.add(block);
+            if (pending.size() == partials.length) {
+                CovarianceAccumulator.addAll(partials, pending);
+                pending.clear();
             }
         }
-        double[][] data = new double[rows.size()][];
-        for (int i = 0; i < rows.size(); i++) {
-            data[i] = rows.get(i);
+
+        /**
+         * Returns the merged statistics, or {@code null} if no block was seen.
+         */
+        CovarianceAccumulator result() {
+            if (partials == null) {
+                return null;
+            }
+            CovarianceAccumulator.addAll(partials, pending);
+            pending.clear();
+            return CovarianceAccumulator.mergeAll(partials);
         }
-        return data;
     }
 
     /**
@@ -117,9 +170,9 @@ public class FitController {
     /**
      * Handles the event when the "Fit" button is clicked.
      * <p>
-     * This method reads the dataset file path from the text field, loads the CSV data,
-     * constructs a {@link Matrix} from the data, displays a sample image if possible, fits a PCA model,
-     * and saves the fitted PCA model to a file.
+     * This method reads the dataset file path from the text field, streams the CSV or binary dataset into a
+     * {@link CovarianceAccumulator}, displays the mean image, fits a PCA model from the accumulated
+     * statistics, and saves the fitted PCA model to a file.
      * </p>
      *
      * @throws IOException if an error occurs during file I/O operations
@@ -130,30 +183,21 @@ public class FitController {
 
         boolean skipHeader = true;
         boolean skipFirstColumn = false;
-        double[][] csvData = loadCsv(filePath, skipHeader, skipFirstColumn);
-        Matrix dataMatrix = new Matrix(csvData);
-        System.out.println("Dataset dimensions: " + dataMatrix.getHeight() + " rows and " + dataMatrix.getWidth() + " columns");
-
-        int width = (int) Math.sqrt(dataMatrix.getColumnCount()/3);
-        int height = (int) Math.sqrt(dataMatrix.getColumnCount());
-        double[][] firstSample = new double[1][csvData[0].length];
-        firstSample[0]=csvData[9];
-        Matrix firstsamplemat=new Matrix(firstSample);
-        System.out.println(firstsamplemat);
-        System.out.println("YPPIEW");
-
-
-            BufferedImage image =  ImageUtils.rowMatrixToImage(firstsamplemat, width, width);
-            Matrix imagemat=ImageUtils.imageToRGBRowMatrix(image);
-            image=ImageUtils.rowMatrixToImage(imagemat,width,width);
-            CSVLoader.displayImage(image, "First Sample");
-        System.out.println(imagemat);
-
-
+        CovarianceAccumulator stats = filePath.endsWith(BinaryDataset.EXTENSION)
+                ? accumulateDataset(filePath)
+                : accumulateCsv(filePath, skipHeader, skipFirstColumn);
+        if (stats == null) {
+            System.err.println("Dataset is empty: " + filePath);
+            return;
+        }
+        System.out.println("Dataset dimensions: " + stats.getCount() + " rows and " + stats.getFeatures() + " columns");
 
+        int width = (int) Math.sqrt(stats.getFeatures()/3);
+        BufferedImage image = ImageUtils.rowMatrixToImage(stats.getMean(), width, width);
+        CSVLoader.displayImage(image, "Mean Sample");
 
-        PCA pca = new PCA(dataMatrix.getWidth());
-        pca.fit(dataMatrix, dataMatrix.getColumnCount() *5/10);
+        PCA pca = new PCA(stats.getFeatures());
+        pca.fit(stats, stats.getFeatures() *5/10);
         pca.saveToFile("PCAMagnivFile");
         ;
         for (int i = 0; i <10 ; i++) {
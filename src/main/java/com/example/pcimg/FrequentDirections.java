@@ -0,0 +1,188 @@
+package com.example.pcimg;
+
+import java.util.Arrays;
+
+/**
+ * Deterministic streaming sketch of {@code X^T X} with bounded memory (Frequent Directions, Liberty 2013).
+ * <p>
+ * The sketch keeps at most {@code 2 * sketchSize} rows of width {@code features}. When the buffer fills,
+ * it is shrunk: its singular values are computed from the small Gram matrix with
+ * {@link EigenCalculator}, every squared singular value is reduced by the {@code sketchSize}-th largest
+ * one ({@code delta}), and the rows whose singular value drops to zero are freed.
+ * </p>
+ * <p>
+ * For the sketch {@code B} of a stream {@code X} this guarantees
+ * {@code 0 <= x^T (X^T X - B^T B) x <= Delta} for every unit vector {@code x}, where {@code Delta}
+ * is the sum of all shrink amounts ({@link #getErrorBound()}), and
+ * {@code Delta <= ||X||_F^2 / sketchSize}. The same bound holds for the centered covariance, since
+ * {@link PCA} uses {@code B^T B - n mean^T mean} for {@code X^T X - n mean^T mean}.
+ * Larger sketches trade memory for accuracy.
+ * </p>
+ */
+public class FrequentDirections {
+
+    private final int features;
+    private final int sketchSize;
+    private final double[] buffer;
+    private final double[] sum;
+    private int filled;
+    private long count;
+    private double delta;
+    private double frobeniusSquared;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param features   the number of features (columns) of every sample
+     * @param sketchSize the number of sketch rows {@code l}; the error bound is {@code ||X||_F^2 / l}
+     * @throws IllegalArgumentException if {@code sketchSize} is not positive
+     */
+    public FrequentDirections(int features, int sketchSize) {
+        if (sketchSize < 1) {
+            throw new IllegalArgumentException("Sketch size must be positive: " + sketchSize);
+        }
+        this.features = features;
+        this.sketchSize = sketchSize;
+        this.buffer = new double[2 * sketchSize * features];
+        this.sum = new double[features];
+    }
+
+    /**
+     * Adds one sample to the sketch.
+     *
+     * @param row the sample; its length must equal the number of features
+     * @throws IllegalArgumentException if the row has the wrong length
+     */
+    public void add(double[] row) {
+        if (row.length != features) {
+            throw new IllegalArgumentException("Expected " + features + " features but got " + row.length);
+        }
+        System.arraycopy(row, 0, buffer, filled * features, features);
+        for (int j = 0; j < features; j++) {
+            sum[j] += row[j];
+            frobeniusSquared += row[j] * row[j];
+        }
+        count++;
+        if (++filled == 2 * sketchSize) {
+            shrink();
+        }
+    }
+
+    /**
+     * Adds every row of a matrix to the sketch.
+     *
+     * @param rows the samples, one per row
+     * @throws IllegalArgumentException if the width does not equal the number of features
+     */
+    public void add(Matrix rows) {
+        for (int i = 0; i < rows.getHeight(); i++) {
+            add(rows.getR(i).toRowMajorArray());
+        }
+    }
+
+    /**
+     * Returns the sketch {@code B}, shrinking it first so that it has at most {@code sketchSize} rows.
+     *
+     * @return a new matrix of at most sketchSize x features
+     */
+    public Matrix getSketch() {
+        if (filled > sketchSize) {
+            shrink();
+        }
+        return new Matrix(filled, features, Arrays.copyOf(buffer, filled * features));
+    }
+
+    /**
+     * Returns the mean of the samples added so far.
+     *
+     * @return a new 1 x features {@code Matrix}
+     */
+    public Matrix getMean() {
+        double[] mean = new double[features];
+        for (int j = 0; j < features; j++) {
+            mean[j] = count == 0 ? 0 : sum[j] / count;
+        }
+        return new Matrix(1, features, mean);
+    }
+
+    /**
+     * Returns the number of samples added so far.
+     *
+     * @return the sample count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of features.
+     *
+     * @return the sample width
+     */
+    public int getFeatures() {
+        return features;
+    }
+
+    /**
+     * Returns the configured number of sketch rows.
+     *
+     * @return the sketch size {@code l}
+     */
+    public int getSketchSize() {
+        return sketchSize;
+    }
+
+    /**
+     * Returns the certified bound on the spectral norm of {@code X^T X - B^T B}: the total amount
+     * the sketch has been shrunk by so far. It never exceeds {@code ||X||_F^2 / sketchSize}.
+     *
+     * @return the error bound {@code Delta}
+     */
+    public double getErrorBound() {
+        return delta;
+    }
+
+    /**
+     * Returns the squared Frobenius norm {@code ||X||_F^2} of the samples added so far.
+     *
+     * @return the total energy of the stream
+     */
+    public double getFrobeniusNormSquared() {
+        return frobeniusSquared;
+    }
+
+    /**
+     * Shrinks the buffered rows to at most {@code sketchSize - 1} nonzero rows.
+     */
+    private void shrink() {
+        int rows = filled;
+        Matrix B = new Matrix(rows, features, buffer);
+        Matrix.Pair eigenPair = EigenCalculator.calculateEigen(B.transpose().syrk());
+        Matrix values = eigenPair.getFirst();
+        Matrix vectors = eigenPair.getSecond();
+
+        // Eigenvalues are ascending; the l-th largest squared singular value is the shrink amount.
+        int rank = Math.min(sketchSize, rows);
+        double shrinkBy = Math.max(0, values.get(rows - rank, rows - rank));
+        int kept = 0;
+        Matrix coefficients = Matrix.zeros(rank, rows);
+        for (int i = 0; i < rank; i++) {
+            int src = rows - 1 - i;
+            double lambda = values.get(src, src);
+            if (lambda <= shrinkBy || lambda <= 0) {
+                break;
+            }
+            double scale = Math.sqrt((lambda - shrinkBy) / lambda);
+            for (int r = 0; r < rows; r++) {
+                coefficients.set(i, r, scale * vectors.get(r, src));
+            }
+            kept++;
+        }
+        // New rows are sqrt(lambda_i - delta) v_i^T = scale_i u_i^T B.
+        double[] shrunk = coefficients.getSubMatrix(0, kept, 0, rows).dot(B).toRowMajorArray();
+        Arrays.fill(buffer, 0);
+        System.arraycopy(shrunk, 0, buffer, 0, shrunk.length);
+        filled = kept;
+        delta += shrinkBy;
+    }
+}
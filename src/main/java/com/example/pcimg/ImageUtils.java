@@ -2,52 +2,192 @@ package com.example.pcimg;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 
 public class ImageUtils {
 
+    /** Estimated cost of converting one pixel, in the units of {@link ComputePool#parallelFor}. */
+    private static final long WORK_PER_PIXEL = 8;
+
+    /** Pixels reconstructed together by {@link #decodeToImage(PCA, Matrix, int, int)}. */
+    private static final int DECODE_TILE = 1024;
+
+    /**
+     * Packed {@code 0xRRGGBB} value {@link BufferedImage#getRGB(int, int)} returns for every level of a
+     * {@code TYPE_BYTE_GRAY} image. The gray color space is linear, so the levels are not stored as is.
+     */
+    private static final int[] GRAY_TO_RGB = grayToRgb();
+
+    /**
+     * Copies one row of an image into packed {@code 0xRRGGBB} values.
+     */
+    @FunctionalInterface
+    private interface RowReader {
+        void read(int y, int[] rgb);
+    }
+
     public static BufferedImage loadImage(String path) throws IOException {
         return ImageIO.read(new File(path));
     }
 
+    /**
+     * Converts an image to a row vector of its luminance, {@code (0.299 r + 0.587 g + 0.114 b) / 255},
+     * in row-major pixel order. Rows are converted in parallel; see {@link #imageToRGBRowMatrix(BufferedImage)}
+     * for the image layouts read without going through the color model.
+     *
+     * @param img the image
+     * @return a 1 x (w*h) matrix
+     */
     public static Matrix imageToGrayscaleRowMatrix(BufferedImage img) {
         int w = img.getWidth(), h = img.getHeight();
-        double[][] data = new double[1][w * h];
-
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int rgb = img.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = (rgb) & 0xFF;
-                // convert to luminance (grayscale)
-                double gray = (0.299 * r + 0.587 * g + 0.114 * b) / 255.0;
-                data[0][y * w + x] = gray;
+        double[] data = new double[w * h];
+        RowReader reader = rowReader(img);
+        ComputePool.parallelFor(0, h, WORK_PER_PIXEL * w, (from, to) -> {
+            int[] rgb = new int[w];
+            for (int y = from; y < to; y++) {
+                reader.read(y, rgb);
+                for (int x = 0; x < w; x++) {
+                    int r = (rgb[x] >> 16) & 0xFF;
+                    int g = (rgb[x] >> 8) & 0xFF;
+                    int b = (rgb[x]) & 0xFF;
+                    // convert to luminance (grayscale)
+                    data[y * w + x] = (0.299 * r + 0.587 * g + 0.114 * b) / 255.0;
+                }
             }
-        }
-
-        return new Matrix(data);
+        });
+        return new Matrix(1, w * h, data);
     }
 
+    /**
+     * Converts an image to a row vector holding its red, green and blue planes one after the other,
+     * each in row-major pixel order with values from 0 to 255.
+     * <p>
+     * Images of type {@code TYPE_INT_RGB}, {@code TYPE_INT_ARGB}, {@code TYPE_3BYTE_BGR},
+     * {@code TYPE_4BYTE_ABGR} and {@code TYPE_BYTE_GRAY} are read straight from their {@link DataBuffer};
+     * other images go through {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}. Both give
+     * the same values. Rows are converted in parallel on the {@link ComputePool}.
+     * </p>
+     *
+     * @param img the image
+     * @return a 1 x (3*w*h) matrix
+     */
     public static Matrix imageToRGBRowMatrix(BufferedImage img) {
         int w = img.getWidth(), h = img.getHeight();
-        double[][] data = new double[1][3 * w * h];
-
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int rgb = img.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = (rgb) & 0xFF;
-                int idx = y * w + x;
-                data[0][idx] = r ;
-                data[0][w * h + idx] = g ;
-                data[0][2 * w * h + idx] = b ;
+        return new Matrix(1, 3 * w * h, rgbPlanes(img));
+    }
+
+    /**
+     * Returns the planes of {@link #imageToRGBRowMatrix(BufferedImage)} as a new array, for callers that
+     * pack several images into one matrix.
+     */
+    static double[] rgbPlanes(BufferedImage img) {
+        double[] data = new double[3 * img.getWidth() * img.getHeight()];
+        rgbPlanes(img, data, 0);
+        return data;
+    }
+
+    /**
+     * Writes the planes of {@link #imageToRGBRowMatrix(BufferedImage)} into {@code data}, starting at
+     * index {@code start}, e.g. as one row of a packed block of images.
+     */
+    static void rgbPlanes(BufferedImage img, double[] data, int start) {
+        int w = img.getWidth(), h = img.getHeight();
+        int pixels = w * h;
+        RowReader reader = rowReader(img);
+        ComputePool.parallelFor(0, h, WORK_PER_PIXEL * w, (from, to) -> {
+            int[] rgb = new int[w];
+            for (int y = from; y < to; y++) {
+                reader.read(y, rgb);
+                int idx = start + y * w;
+                for (int x = 0; x < w; x++, idx++) {
+                    data[idx] = (rgb[x] >> 16) & 0xFF;
+                    data[pixels + idx] = (rgb[x] >> 8) & 0xFF;
+                    data[2 * pixels + idx] = rgb[x] & 0xFF;
+                }
+            }
+        });
+    }
+
+    /**
+     * Picks the fastest way to read the rows of {@code img}: directly from the data buffer for the
+     * common sRGB layouts, otherwise through the color model.
+     */
+    private static RowReader rowReader(BufferedImage img) {
+        int w = img.getWidth();
+        WritableRaster raster = img.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        // Pixel (x, y) of the image is sample (x - tx, y - ty) of the buffer; nonzero for subimages.
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+        if (buffer.getNumBanks() == 1 && !img.isAlphaPremultiplied()) {
+            int type = img.getType();
+            if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                    && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+                SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                int[] masks = model.getBitMasks();
+                if (masks[0] == 0xFF0000 && masks[1] == 0xFF00 && masks[2] == 0xFF) {
+                    int[] data = ((DataBufferInt) buffer).getData();
+                    int stride = model.getScanlineStride();
+                    int base = buffer.getOffset() - ty * stride - tx;
+                    return (y, rgb) -> {
+                        int offset = base + y * stride;
+                        for (int x = 0; x < w; x++) {
+                            rgb[x] = data[offset + x] & 0xFFFFFF;
+                        }
+                    };
+                }
+            }
+            if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR
+                    || type == BufferedImage.TYPE_BYTE_GRAY)
+                    && raster.getSampleModel() instanceof ComponentSampleModel) {
+                ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+                byte[] data = ((DataBufferByte) buffer).getData();
+                int stride = model.getScanlineStride();
+                int step = model.getPixelStride();
+                int[] bands = model.getBandOffsets();
+                int base = buffer.getOffset() - ty * stride - tx * step;
+                if (type == BufferedImage.TYPE_BYTE_GRAY) {
+                    int gray = base + bands[0];
+                    return (y, rgb) -> {
+                        int offset = gray + y * stride;
+                        for (int x = 0; x < w; x++, offset += step) {
+                            rgb[x] = GRAY_TO_RGB[data[offset] & 0xFF];
+                        }
+                    };
+                }
+                // Bands 0, 1 and 2 are red, green and blue whatever their order in memory.
+                int red = base + bands[0];
+                int green = bands[1] - bands[0];
+                int blue = bands[2] - bands[0];
+                return (y, rgb) -> {
+                    int offset = red + y * stride;
+                    for (int x = 0; x < w; x++, offset += step) {
+                        rgb[x] = (data[offset] & 0xFF) << 16 | (data[offset + green] & 0xFF) << 8
+                                | (data[offset + blue] & 0xFF);
+                    }
+                };
             }
         }
+        return (y, rgb) -> img.getRGB(0, y, w, 1, rgb, 0, w);
+    }
 
-        return new Matrix(data);
+    private static int[] grayToRgb() {
+        BufferedImage levels = new BufferedImage(256, 1, BufferedImage.TYPE_BYTE_GRAY);
+        for (int level = 0; level < 256; level++) {
+            levels.getRaster().setSample(level, 0, 0, level);
+        }
+        int[] rgb = levels.getRGB(0, 0, 256, 1, null, 0, 256);
+        for (int level = 0; level < 256; level++) {
+            rgb[level] &= 0xFFFFFF;
+        }
+        return rgb;
     }
 
 
@@ -55,6 +195,8 @@ public class ImageUtils {
      * Converts a row vector (Matrix) back to a BufferedImage.
      * The input Matrix is assumed to be of size 1 x (3*w*h) where the first w*h elements are
      * the red channel, the next w*h are the green channel, and the last w*h are the blue channel.
+     * Values are truncated to integers and clamped to [0, 255], and the packed pixels are written
+     * straight into the image's raster, in parallel rows.
      *
      * @param matrix the row vector representing the image.
      * @param w      the width of the image.
@@ -64,33 +206,80 @@ public class ImageUtils {
     public static BufferedImage rowMatrixToImage(Matrix matrix, int w, int h) {
         // Create a new BufferedImage with RGB color model.
         BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-        double[][] data = matrix.getValues();
-
-        // Since the matrix is a single row, we access the first row.
-        double[] row = data[0];
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
         int pixelCount = w * h;
 
-        // Loop over each pixel coordinate.
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int idx = y * w + x;
-
-                // For each channel, convert from normalized value [0,1] to integer in [0,255].
-                int r = (int)(row[idx] );
-                int g = (int)(row[pixelCount + idx] );
-                int b = (int)(row[2 * pixelCount + idx] );
+        ComputePool.parallelFor(0, h, WORK_PER_PIXEL * w, (from, to) -> {
+            for (int idx = from * w; idx < to * w; idx++) {
+                // Since the matrix is a single row, we read its first row.
+                pixels[idx] = pack(matrix.get(0, idx), matrix.get(0, pixelCount + idx),
+                        matrix.get(0, 2 * pixelCount + idx));
+            }
+        });
 
-                // Clamp the values to ensure they are within 0 to 255.
-                r = Math.min(255, Math.max(0, r));
-                g = Math.min(255, Math.max(0, g));
-                b = Math.min(255, Math.max(0, b));
+        return img;
+    }
 
-                // Combine the color channels back into a single integer.
-                int rgb = (r << 16) | (g << 8) | b;
-                img.setRGB(x, y, rgb);
-            }
+    /**
+     * Reconstructs an image from its PCA coefficients without materializing the decoded row.
+     * <p>
+     * This gives the same pixels as {@code rowMatrixToImage(model.decode(coefficients), w, h)}, but
+     * fuses the steps: the image is split into tiles of pixels processed in parallel, and for each
+     * tile the three channels are computed as {@code v * c + avg} into small per-task buffers,
+     * clamped, packed and stored into the {@code int[]} of a {@code TYPE_INT_RGB} raster. The only
+     * allocations are the image and the per-task buffers.
+     * </p>
+     *
+     * @param model        the model the image was encoded with
+     * @param coefficients the 1 x k encoded image, e.g. from {@link EncodedImage#dequantize(PCA)}
+     * @param w            the width of the image
+     * @param h            the height of the image
+     * @return the reconstructed image
+     * @throws IllegalArgumentException if the coefficients are not a single row matching the model,
+     *                                  or the model does not produce {@code 3 * w * h} features
+     */
+    public static BufferedImage decodeToImage(PCA model, Matrix coefficients, int w, int h) {
+        Matrix v = model.v;
+        int pixelCount = w * h;
+        if (coefficients.getHeight() != 1 || coefficients.getWidth() != v.getWidth()) {
+            throw new IllegalArgumentException("Expected 1x" + v.getWidth() + " coefficients but got "
+                    + coefficients.getHeight() + "x" + coefficients.getWidth());
         }
-
+        if (v.getHeight() != 3L * pixelCount) {
+            throw new IllegalArgumentException("Model produces " + v.getHeight() + " features, not 3x" + w + "x" + h);
+        }
+        double[] c = coefficients.toRowMajorArray();
+        double[] avg = model.decodeOffset();
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        int tiles = (pixelCount + DECODE_TILE - 1) / DECODE_TILE;
+        ComputePool.parallelFor(0, tiles, 3L * DECODE_TILE * c.length, (from, to) -> {
+            double[] red = new double[DECODE_TILE];
+            double[] green = new double[DECODE_TILE];
+            double[] blue = new double[DECODE_TILE];
+            for (int tile = from; tile < to; tile++) {
+                int start = tile * DECODE_TILE;
+                int end = Math.min(pixelCount, start + DECODE_TILE);
+                v.dotRows(c, start, end, red, 0);
+                v.dotRows(c, pixelCount + start, pixelCount + end, green, 0);
+                v.dotRows(c, 2 * pixelCount + start, 2 * pixelCount + end, blue, 0);
+                for (int idx = start; idx < end; idx++) {
+                    int i = idx - start;
+                    pixels[idx] = pack(red[i] + avg[idx], green[i] + avg[pixelCount + idx],
+                            blue[i] + avg[2 * pixelCount + idx]);
+                }
+            }
+        });
         return img;
     }
+
+    /**
+     * Truncates three channel values to integers, clamps them to [0, 255] and packs them as {@code 0xRRGGBB}.
+     */
+    private static int pack(double red, double green, double blue) {
+        int r = Math.min(255, Math.max(0, (int) red));
+        int g = Math.min(255, Math.max(0, (int) green));
+        int b = Math.min(255, Math.max(0, (int) blue));
+        return (r << 16) | (g << 8) | b;
+    }
 }
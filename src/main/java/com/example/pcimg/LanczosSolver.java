@@ -0,0 +1,239 @@
+package com.example.pcimg;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Computes the leading eigenpairs of a large symmetric operator with the thick-restart Lanczos method.
+ * <p>
+ * Only a Krylov basis of a few times {@code k} vectors is kept, so the cost is dominated by
+ * operator applications and the memory by {@code O(k * n)}, instead of the {@code O(n^3)} time and
+ * {@code O(n^2)} memory of a full decomposition. The basis is fully reorthogonalized at every step
+ * and the projected matrix is diagonalized with {@link EigenCalculator}. At each restart the
+ * best Ritz vectors are kept and the rest of the basis is discarded.
+ * </p>
+ * <p>
+ * If the wanted pairs have not reached the residual tolerance after {@value #MAX_RESTARTS} restarts,
+ * as can happen when eigenvalues are tightly clustered around the {@code k}-th, the iteration fails
+ * like {@link EigenCalculator} does rather than return inaccurate pairs.
+ * </p>
+ */
+public class LanczosSolver {
+
+    /**
+     * A symmetric linear operator {@code y = A x} on vectors of a fixed dimension.
+     */
+    @FunctionalInterface
+    public interface Operator {
+        /**
+         * Applies the operator.
+         *
+         * @param x the input vector; must not be modified
+         * @return a new vector {@code A x}
+         */
+        double[] apply(double[] x);
+    }
+
+    /** Relative residual below which a Ritz pair is accepted. */
+    private static final double TOLERANCE = 1e-10;
+
+    /** Number of restarts after which the iteration is considered not to converge. */
+    private static final int MAX_RESTARTS = 500;
+
+    private LanczosSolver() {
+    }
+
+    /**
+     * Returns an operator that multiplies by the given symmetric matrix.
+     *
+     * @param A a symmetric matrix
+     * @return the operator {@code x -> A x}
+     */
+    public static Operator of(Matrix A) {
+        return A::dot;
+    }
+
+    /**
+     * Returns an operator that multiplies by {@code X^T X} without forming it.
+     * For a centered data matrix this is the (unnormalized) covariance computed by {@link Matrix#syrk()}.
+     *
+     * @param X the data matrix, one sample per row
+     * @return the operator {@code v -> X^T (X v)}
+     */
+    public static Operator gram(Matrix X) {
+        Matrix Xt = X.transpose();
+        return v -> Xt.dot(X.dot(v));
+    }
+
+    /**
+     * Computes the {@code k} algebraically largest eigenpairs of a symmetric operator.
+     *
+     * @param op the symmetric operator
+     * @param n  the dimension of the operator
+     * @param k  the number of eigenpairs to compute, {@code 1 <= k <= n}
+     * @return a {@link Matrix.Pair} where the first element is a k x k diagonal matrix of eigenvalues in
+     *         descending order and the second element is the n x k matrix of corresponding unit eigenvectors
+     * @throws IllegalArgumentException if {@code k} is out of range
+     * @throws ArithmeticException      if the iteration does not converge within {@value #MAX_RESTARTS} restarts
+     */
+    public static Matrix.Pair largest(Operator op, int n, int k) {
+        if (k < 1 || k > n) {
+            throw new IllegalArgumentException("Number of eigenpairs must be between 1 and " + n + ": " + k);
+        }
+        int m = Math.min(n, Math.max(2 * k + 1, k + 20));
+        double[] basis = new double[(m + 1) * n];
+        double[] T = new double[m * m];
+        Random random = new Random(42);
+
+        int start = 0;
+        double[] normEstimate = new double[1];
+        randomUnitVector(basis, 0, n, random);
+        for (int restart = 0; restart < MAX_RESTARTS; restart++) {
+            double beta = expand(op, basis, T, n, m, start, random, normEstimate);
+
+            // Rayleigh-Ritz on the projected matrix; EigenCalculator returns ascending eigenvalues.
+            Matrix.Pair ritz = EigenCalculator.calculateEigen(new Matrix(m, m, T.clone()));
+            Matrix theta = ritz.getFirst();
+            Matrix Y = ritz.getSecond();
+
+            double scale = Math.max(Math.abs(theta.get(0, 0)), Math.abs(theta.get(m - 1, m - 1)));
+            boolean converged = true;
+            for (int i = m - k; i < m; i++) {
+                if (Math.abs(beta * Y.get(m - 1, i)) > TOLERANCE * Math.max(scale, Double.MIN_NORMAL)) {
+                    converged = false;
+                    break;
+                }
+            }
+            if (converged || m == n) {
+                return ritzPairs(basis, Y, theta, n, m, k);
+            }
+
+            // Thick restart: keep the best Ritz vectors and continue from the last Lanczos vector.
+            int keep = Math.min(m - 1, k + (m - k) / 2);
+            double[] kept = Y.getSubMatrix(0, m, m - keep, keep).transpose()
+                    .dot(new Matrix(m, n, basis)).toRowMajorArray();
+            System.arraycopy(basis, m * n, basis, keep * n, n);
+            System.arraycopy(kept, 0, basis, 0, keep * n);
+            Arrays.fill(T, 0);
+            for (int i = 0; i < keep; i++) {
+                int src = m - keep + i;
+                T[i * m + i] = theta.get(src, src);
+                double s = beta * Y.get(m - 1, src);
+                T[i * m + keep] = s;
+                T[keep * m + i] = s;
+            }
+            start = keep;
+        }
+        throw new ArithmeticException("Lanczos iteration did not converge in " + MAX_RESTARTS + " restarts");
+    }
+
+    /**
+     * Extends the basis from column {@code start} to {@code m} vectors, filling the projected matrix.
+     * {@code normEstimate[0]} tracks the largest {@code |A v|} seen so far and is used to detect breakdown.
+     *
+     * @return the norm of the residual, which becomes basis vector {@code m}
+     */
+    private static double expand(Operator op, double[] basis, double[] T, int n, int m, int start, Random random,
+                                 double[] normEstimate) {
+        double[] v = new double[n];
+        double beta = 0;
+        for (int j = start; j < m; j++) {
+            System.arraycopy(basis, j * n, v, 0, n);
+            double[] w = op.apply(v);
+            normEstimate[0] = Math.max(normEstimate[0], norm(w));
+            // Two passes of classical Gram-Schmidt against the whole basis; the coefficients of the
+            // first pass are column j of V^T A V.
+            double[] h = orthogonalize(basis, w, n, j + 1);
+            double[] h2 = orthogonalize(basis, w, n, j + 1);
+            for (int i = 0; i <= j; i++) {
+                double t = h[i] + h2[i];
+                T[i * m + j] = t;
+                T[j * m + i] = t;
+            }
+            beta = norm(w);
+            if (beta <= TOLERANCE * normEstimate[0]) {
+                // Invariant subspace found; continue with a fresh direction orthogonal to the basis.
+                beta = 0;
+                randomUnitVector(w, 0, n, random);
+                orthogonalize(basis, w, n, j + 1);
+                orthogonalize(basis, w, n, j + 1);
+                double wn = norm(w);
+                for (int i = 0; i < n; i++) {
+                    basis[(j + 1) * n + i] = wn == 0 ? 0 : w[i] / wn;
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    basis[(j + 1) * n + i] = w[i] / beta;
+                }
+            }
+        }
+        return beta;
+    }
+
+    /**
+     * Removes from {@code w} its components along the first {@code count} basis vectors.
+     *
+     * @return the removed coefficients
+     */
+    private static double[] orthogonalize(double[] basis, double[] w, int n, int count) {
+        double[] h = new double[count];
+        ComputePool.parallelFor(0, count, n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = i * n;
+                double sum = 0;
+                for (int c = 0; c < n; c++) {
+                    sum += basis[row + c] * w[c];
+                }
+                h[i] = sum;
+            }
+        });
+        ComputePool.parallelFor(0, n, count, (from, to) -> {
+            for (int i = 0; i < count; i++) {
+                int row = i * n;
+                double hi = h[i];
+                for (int c = from; c < to; c++) {
+                    w[c] -= hi * basis[row + c];
+                }
+            }
+        });
+        return h;
+    }
+
+    /**
+     * Assembles the {@code k} largest Ritz pairs, in descending order, from the current basis.
+     */
+    private static Matrix.Pair ritzPairs(double[] basis, Matrix Y, Matrix theta, int n, int m, int k) {
+        Matrix Yk = Matrix.zeros(m, k);
+        Matrix D = Matrix.zeros(k, k);
+        for (int i = 0; i < k; i++) {
+            int src = m - 1 - i;
+            D.set(i, i, theta.get(src, src));
+            for (int r = 0; r < m; r++) {
+                Yk.set(r, i, Y.get(r, src));
+            }
+        }
+        Matrix V = new Matrix(m, n, basis).transpose().dot(Yk);
+        return new Matrix.Pair(D, V);
+    }
+
+    private static void randomUnitVector(double[] target, int offset, int n, Random random) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double g = random.nextGaussian();
+            target[offset + i] = g;
+            sum += g * g;
+        }
+        double inv = 1.0 / Math.sqrt(sum);
+        for (int i = 0; i < n; i++) {
+            target[offset + i] *= inv;
+        }
+    }
+
+    private static double norm(double[] x) {
+        double sum = 0;
+        for (double xi : x) {
+            sum += xi * xi;
+        }
+        return Math.sqrt(sum);
+    }
+}
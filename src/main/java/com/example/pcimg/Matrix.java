@@ -1,18 +1,22 @@
 package com.example.pcimg;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Arrays;
 
 
 public class Matrix implements Serializable {
     private static final long serialVersionUID = 1L;
-    private double[][] values;
-    private double[][] transposed;
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("rows", int.class),
+            new ObjectStreamField("cols", int.class),
+            new ObjectStreamField("data", double[].class)
+    };
+    private double[] data;
+    private int rows;
+    private int cols;
+    private int offset;
+    private int rowStride;
+    private int colStride;
     public static long time = 0;
 
     /**
@@ -39,7 +43,71 @@ public class Matrix implements Serializable {
      * @param values the two-dimensional array to set as the matrix values
      */
     public void setValues(double[][] values) {
-        this.values = clone2darray(values);
+        this.rows = values.length;
+        this.cols = rows == 0 ? 0 : values[0].length;
+        this.data = flatten2DArray(values, rows, cols);
+        this.offset = 0;
+        this.rowStride = cols;
+        this.colStride = 1;
+    }
+
+    /**
+     * Copies a rectangular two-dimensional array into a single row-major array.
+     *
+     * @param values the array to copy
+     * @param rows   the number of rows
+     * @param cols   the number of columns
+     * @return a contiguous row-major copy of {@code values}
+     */
+    private static double[] flatten2DArray(double[][] values, int rows, int cols) {
+        double[] flat = new double[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(values[i], 0, flat, i * cols, cols);
+        }
+        return flat;
+    }
+
+    /**
+     * Returns the index of element (y, x) in the backing array.
+     */
+    private int index(int y, int x) {
+        return offset + y * rowStride + x * colStride;
+    }
+
+    /**
+     * Returns {@code true} if the backing array holds exactly this matrix in row-major order.
+     */
+    private boolean isDense() {
+        return offset == 0 && colStride == 1 && rowStride == cols && data.length == rows * cols;
+    }
+
+    /**
+     * Returns the elements in row-major order; the backing array itself when the matrix is dense,
+     * otherwise a packed copy. Callers must not modify the result.
+     *
+     * @return a row-major array of length {@code rows * cols}
+     */
+    double[] rowMajor() {
+        if (isDense()) {
+            return data;
+        }
+        double[] packed = new double[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                packed[i * cols + j] = data[index(i, j)];
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Returns a new row-major array holding the elements of this matrix.
+     *
+     * @return a row-major copy of length {@code height * width}
+     */
+    double[] toRowMajorArray() {
+        double[] a = rowMajor();
+        return a == data ? a.clone() : a;
     }
 
     /**
@@ -50,7 +118,7 @@ public class Matrix implements Serializable {
      * @return the element at position (y, x)
      */
     public double get(int y, int x) {
-        return values[y][x];
+        return data[index(y, x)];
     }
 
     /**
@@ -63,7 +131,7 @@ public class Matrix implements Serializable {
         String s = "";
         for (int i = 0; i < getHeight(); i++) {
             for (int j = 0; j < getWidth(); j++) {
-                s += this.values[i][j];
+                s += get(i, j);
                 s += ", ";
             }
             s += "\n";
@@ -78,23 +146,26 @@ public class Matrix implements Serializable {
      * @return a matrix representing the i-th row
      */
     public Matrix getR(int i) {
-        double[] arr = values[i];
-        double[][] newarr = new double[1][arr.length];
-        newarr[0] = arr;
-        Matrix newm = new Matrix(newarr);
+        Matrix newm = new Matrix(1, cols);
+        for (int j = 0; j < cols; j++) {
+            newm.data[j] = get(i, j);
+        }
         return newm;
     }
 
     /**
      * Returns the specified column as a new {@code Matrix}.
-     * This is achieved by transposing the matrix and retrieving the corresponding row.
+     * The column is returned laid out as a single row (1 x height).
      *
      * @param i the column index to retrieve
      * @return a matrix representing the i-th column
      */
     public Matrix getC(int i) {
-        Matrix newm = transpose(this);
-        return newm.getR(i);
+        Matrix newm = new Matrix(1, rows);
+        for (int j = 0; j < rows; j++) {
+            newm.data[j] = get(j, i);
+        }
+        return newm;
     }
 
     /**
@@ -105,8 +176,7 @@ public class Matrix implements Serializable {
      */
     public void setR(Matrix row, int i) {
         for (int j = 0; j < getWidth(); j++) {
-            values[i][j] = row.values[0][j];
-            transposed[j][i] = values[i][j];
+            set(i, j, row.get(0, j));
         }
     }
 
@@ -118,18 +188,26 @@ public class Matrix implements Serializable {
      */
     public void setC(Matrix cull, int i) {
         for (int j = 0; j < getHeight(); j++) {
-            values[j][i] = cull.values[0][j];
-            transposed[i][j] = values[j][i];
+            set(j, i, cull.get(0, j));
         }
     }
 
     /**
      * Returns a deep copy of the matrix values.
+     * <p>
+     * This is a compatibility accessor; the matrix itself is stored in a single flat array.
+     * </p>
      *
      * @return a two-dimensional array containing the matrix values
      */
     public double[][] getValues() {
-        return clone2darray(values);
+        double[][] copy = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                copy[i][j] = get(i, j);
+            }
+        }
+        return copy;
     }
 
     /**
@@ -138,7 +216,7 @@ public class Matrix implements Serializable {
      * @return the width of the matrix
      */
     public int getWidth() {
-        return this.values[0].length;
+        return cols;
     }
 
     /**
@@ -147,7 +225,7 @@ public class Matrix implements Serializable {
      * @return the height of the matrix
      */
     public int getHeight() {
-        return this.values.length;
+        return rows;
     }
 
     /**
@@ -156,8 +234,7 @@ public class Matrix implements Serializable {
      * @param mat the two-dimensional array of values
      */
     public Matrix(double[][] mat) {
-        this.values = clone2darray(mat);
-        this.transposed = transpose2DArray(values);
+        setValues(mat);
     }
 
     /**
@@ -166,8 +243,26 @@ public class Matrix implements Serializable {
      * @param m the matrix to copy
      */
     public Matrix(Matrix m) {
-        this.values = clone2darray(m.values);
-        this.transposed = clone2darray(m.transposed);
+        this.rows = m.rows;
+        this.cols = m.cols;
+        this.data = m.isDense() ? m.data.clone() : m.rowMajor();
+        this.rowStride = cols;
+        this.colStride = 1;
+    }
+
+    /**
+     * Constructs a {@code Matrix} that uses the given row-major array as its storage without copying it.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param data the row-major backing array, of length at least {@code rows * cols}
+     */
+    Matrix(int rows, int cols, double[] data) {
+        this.rows = rows;
+        this.cols = cols;
+        this.data = data;
+        this.rowStride = cols;
+        this.colStride = 1;
     }
 
     /**
@@ -180,16 +275,22 @@ public class Matrix implements Serializable {
      * @return a new {@code Matrix} that is the specified submatrix
      */
     public Matrix getSubMatrix(int i, int height, int i1, int outfeature) {
-        double[][] sub = new double[height][outfeature];
+        Matrix sub = new Matrix(height, outfeature);
         for (int row = 0; row < height; row++) {
             for (int col = 0; col < outfeature; col++) {
-                sub[row][col] = this.values[i + row][i1 + col];
+                sub.data[row * outfeature + col] = get(i + row, i1 + col);
             }
         }
-        return new Matrix(sub);
+        return sub;
     }
 
-    public double[][] values() {return values;
+    /**
+     * Returns a deep copy of the matrix values; equivalent to {@link #getValues()}.
+     *
+     * @return a two-dimensional array containing the matrix values
+     */
+    public double[][] values() {
+        return getValues();
     }
 
     /**
@@ -251,6 +352,12 @@ public class Matrix implements Serializable {
     /**
      * Computes the QR decomposition of a matrix using the Gram-Schmidt process.
      * Returns a {@link Pair} where the first element is the Q matrix and the second element is the R matrix.
+     * <p>
+     * Every column is orthogonalized twice, so Q stays orthonormal to working precision even when
+     * columns are nearly dependent, as in the range finder of {@link PCA#fitRandomized(Matrix, int)}
+     * on data of low rank. A column whose remainder is negligible relative to its own norm is treated
+     * as dependent and replaced by a vector that completes the basis.
+     * </p>
      *
      * @param A the matrix to decompose
      * @return a {@code Pair} containing the Q and R matrices
@@ -270,15 +377,23 @@ public class Matrix implements Serializable {
             for (int i = 0; i < m; i++) {
                 v[i] = Avals[i][j];
             }
-            // Subtract the projection on all previous columns of Q
-            for (int i = 0; i < j; i++) {
-                double dot = 0;
-                for (int k = 0; k < m; k++) {
-                    dot += Q[k][i] * Avals[k][j];
-                }
-                R[i][j] = dot;
-                for (int k = 0; k < m; k++) {
-                    v[k] -= dot * Q[k][i];
+            double columnNorm = 0;
+            for (int i = 0; i < m; i++) {
+                columnNorm += v[i] * v[i];
+            }
+            columnNorm = Math.sqrt(columnNorm);
+            // Subtract the projection on all previous columns of Q, then once more to remove the
+            // rounding error left by the first pass
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < j; i++) {
+                    double dot = 0;
+                    for (int k = 0; k < m; k++) {
+                        dot += Q[k][i] * v[k];
+                    }
+                    R[i][j] += dot;
+                    for (int k = 0; k < m; k++) {
+                        v[k] -= dot * Q[k][i];
+                    }
                 }
             }
             // Compute the norm of v
@@ -288,8 +403,8 @@ public class Matrix implements Serializable {
             }
             norm = Math.sqrt(norm);
 
-            // If the vector is nearly zero, complete the basis arbitrarily
-            if (norm < 1e-12) {
+            // If the vector is negligible, complete the basis arbitrarily
+            if (norm <= 1e-12 * columnNorm) {
                 v = completeBasis(Q, j, m);
                 norm = 0;
                 for (int i = 0; i < m; i++) {
@@ -313,6 +428,11 @@ public class Matrix implements Serializable {
     /**
      * Completes the basis for the Gram-Schmidt process by finding a vector that is
      * orthogonal to the existing columns in Q.
+     * <p>
+     * The residuals of the standard basis vectors have squared norms summing to {@code m - j}, so one
+     * of them has norm at least {@code 1 / sqrt(m)}; the first candidate that comes close to that is
+     * used, as smaller residuals are dominated by rounding error.
+     * </p>
      *
      * @param Q the matrix with already computed orthogonal vectors
      * @param j the current index for which the basis is incomplete
@@ -320,18 +440,21 @@ public class Matrix implements Serializable {
      * @return an orthonormal vector that can complete the basis
      */
     private static double[] completeBasis(double[][] Q, int j, int m) {
+        double threshold = 0.5 / Math.sqrt(m);
         // Try each of the standard basis vectors
         for (int candidateIndex = 0; candidateIndex < m; candidateIndex++) {
             double[] candidate = new double[m];
             candidate[candidateIndex] = 1.0;
-            // Orthogonalize candidate against the already computed columns of Q
-            for (int col = 0; col < j; col++) {
-                double dot = 0;
-                for (int i = 0; i < m; i++) {
-                    dot += candidate[i] * Q[i][col];
-                }
-                for (int i = 0; i < m; i++) {
-                    candidate[i] -= dot * Q[i][col];
+            // Orthogonalize candidate against the already computed columns of Q, twice
+            for (int pass = 0; pass < 2; pass++) {
+                for (int col = 0; col < j; col++) {
+                    double dot = 0;
+                    for (int i = 0; i < m; i++) {
+                        dot += candidate[i] * Q[i][col];
+                    }
+                    for (int i = 0; i < m; i++) {
+                        candidate[i] -= dot * Q[i][col];
+                    }
                 }
             }
             // Compute the norm of the candidate vector
@@ -341,7 +464,7 @@ public class Matrix implements Serializable {
             }
             normCandidate = Math.sqrt(normCandidate);
             // If candidate is not nearly zero, normalize and return it
-            if (normCandidate != 0) {
+            if (normCandidate >= threshold) {
                 for (int i = 0; i < m; i++) {
                     candidate[i] /= normCandidate;
                 }
@@ -361,8 +484,7 @@ public class Matrix implements Serializable {
     public static Matrix eye(int n) {
         Matrix m = Matrix.zeros(n, n);
         for (int i = 0; i < n; i++) {
-            m.values[i][i] = 1;
-            m.transposed[i][i] = 1;
+            m.data[i * n + i] = 1;
         }
         return m;
     }
@@ -378,17 +500,86 @@ public class Matrix implements Serializable {
     }
 
 
+    /**
+     * Algorithms available to {@link #eigen(Matrix, EigenMethod)}.
+     */
+    public enum EigenMethod {
+        /** Householder tridiagonalization followed by implicit-shift QL; see {@link EigenCalculator}. */
+        TRIDIAGONAL_QL,
+        /** Parallel cyclic Jacobi rotations; see {@link #eigenJacobi(Matrix)}. */
+        JACOBI,
+        /** Unshifted Householder QR iteration; see {@link #eigenQR(Matrix)}. */
+        QR
+    }
+
+    /**
+     * Computes the eigenvalues and eigenvectors of a symmetric matrix using
+     * {@link EigenMethod#TRIDIAGONAL_QL}.
+     *
+     * @param A the symmetric matrix to decompose
+     * @return a {@link Pair} where the first element is a diagonal matrix of eigenvalues and the
+     *         second element is the matrix of eigenvectors
+     * @throws Exception if the decomposition fails
+     */
     public static Pair eigen(Matrix A) throws Exception {
 
         return EigenCalculator.calculateEigen(A);
     }
 
-
+    /**
+     * Computes the eigenvalues and eigenvectors of a symmetric matrix with the chosen algorithm.
+     *
+     * @param A      the symmetric matrix to decompose
+     * @param method the algorithm to use
+     * @return a {@link Pair} where the first element is a diagonal matrix of eigenvalues and the
+     *         second element is the matrix of eigenvectors
+     * @throws Exception if the decomposition fails
+     */
+    public static Pair eigen(Matrix A, EigenMethod method) throws Exception {
+        switch (method) {
+            case JACOBI:
+                return eigenJacobi(A);
+            case QR:
+                return eigenQR(A);
+            default:
+                return eigen(A);
+        }
+    }
 
     /**
      * Generates rounds (disjoint sets of pivot pairs) via round-robin (1-factorization).
      * For an even number n, there are n-1 rounds; for odd n, we add one dummy index.
+     *
+     * @param n the matrix order
+     * @return {@code rounds[r]} is a flat array {@code p0, q0, p1, q1, ...} of disjoint pairs with {@code p < q}
      */
+    private static int[][] jacobiRounds(int n) {
+        int m = (n % 2 == 0) ? n : n + 1;
+        int[][] rounds = new int[Math.max(0, m - 1)][];
+        int[] ring = new int[m];
+        for (int i = 0; i < m; i++) {
+            ring[i] = i;
+        }
+        for (int r = 0; r < m - 1; r++) {
+            int[] pairs = new int[m];
+            int count = 0;
+            for (int i = 0; i < m / 2; i++) {
+                int p = ring[i];
+                int q = ring[m - 1 - i];
+                if (p >= n || q >= n) {
+                    continue;
+                }
+                pairs[count++] = Math.min(p, q);
+                pairs[count++] = Math.max(p, q);
+            }
+            rounds[r] = Arrays.copyOf(pairs, count);
+            // Keep index 0 fixed and rotate the rest of the ring by one position.
+            int last = ring[m - 1];
+            System.arraycopy(ring, 1, ring, 2, m - 2);
+            ring[1] = last;
+        }
+        return rounds;
+    }
 
     /**
      * Computes the Frobenius norm of the off-diagonal elements.
@@ -404,11 +595,116 @@ public class Matrix implements Serializable {
         return Math.sqrt(2.0 * sum);
     }
 
+    /**
+     * Computes the Frobenius norm of the off-diagonal elements of a row-major n x n array.
+     */
+    private static double offDiagonalNorm(double[] a, int n) {
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                sum += a[i * n + j] * a[i * n + j];
+            }
+        }
+        return Math.sqrt(2.0 * sum);
+    }
+
     /**
      * The main parallel cyclic Jacobi eigenvalue method.
+     * <p>
+     * Each sweep visits every off-diagonal pair once, grouped by {@link #jacobiRounds(int)} into
+     * n-1 rounds of n/2 disjoint pivot pairs. The rotations of a round commute, so they are applied
+     * together on the {@link ComputePool}: first to the columns of A and V (split by row), then to
+     * the rows of A (split by pair). Sweeps stop once {@link #offDiagonalNorm} falls below a relative
+     * tolerance of the matrix norm.
+     * </p>
+     *
      * @param A Input symmetric matrix.
      * @return Pair of Matrices (Diagonal eigenvalue matrix D, and eigenvector matrix V).
+     * @throws ArithmeticException if the matrix is not square
      */
+    public static Pair eigenJacobi(Matrix A) {
+        int n = A.getHeight();
+        if (n != A.getWidth()) {
+            throw new ArithmeticException("Eigen decomposition requires a square matrix");
+        }
+        double[] a = A.toRowMajorArray();
+        Matrix V = Matrix.eye(n);
+        double[] v = V.data;
+        int[][] rounds = jacobiRounds(n);
+        double[] cs = new double[n];
+        double[] sn = new double[n];
+        double tol = 1e-14 * A.norm();
+        int maxSweeps = 60;
+
+        for (int sweep = 0; sweep < maxSweeps && offDiagonalNorm(a, n) > tol; sweep++) {
+            for (int[] pairs : rounds) {
+                int pairCount = pairs.length / 2;
+                for (int t = 0; t < pairCount; t++) {
+                    int p = pairs[2 * t];
+                    int q = pairs[2 * t + 1];
+                    double apq = a[p * n + q];
+                    if (apq == 0) {
+                        cs[t] = 1;
+                        sn[t] = 0;
+                        continue;
+                    }
+                    double theta = (a[q * n + q] - a[p * n + p]) / (2 * apq);
+                    double tan = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        tan = 1;
+                    }
+                    double c = 1 / Math.sqrt(tan * tan + 1);
+                    cs[t] = c;
+                    sn[t] = tan * c;
+                }
+                // A := A J and V := V J, rotating columns p and q of every row.
+                ComputePool.parallelFor(0, n, 12L * pairCount, (from, to) -> {
+                    for (int k = from; k < to; k++) {
+                        int row = k * n;
+                        for (int t = 0; t < pairCount; t++) {
+                            int p = pairs[2 * t];
+                            int q = pairs[2 * t + 1];
+                            double c = cs[t];
+                            double s = sn[t];
+                            double akp = a[row + p];
+                            double akq = a[row + q];
+                            a[row + p] = c * akp - s * akq;
+                            a[row + q] = s * akp + c * akq;
+                            double vkp = v[row + p];
+                            double vkq = v[row + q];
+                            v[row + p] = c * vkp - s * vkq;
+                            v[row + q] = s * vkp + c * vkq;
+                        }
+                    }
+                });
+                // A := J^T A, rotating rows p and q; disjoint pairs touch disjoint rows.
+                ComputePool.parallelFor(0, pairCount, 6L * n, (from, to) -> {
+                    for (int t = from; t < to; t++) {
+                        int p = pairs[2 * t];
+                        int q = pairs[2 * t + 1];
+                        double c = cs[t];
+                        double s = sn[t];
+                        int rowP = p * n;
+                        int rowQ = q * n;
+                        for (int k = 0; k < n; k++) {
+                            double apk = a[rowP + k];
+                            double aqk = a[rowQ + k];
+                            a[rowP + k] = c * apk - s * aqk;
+                            a[rowQ + k] = s * apk + c * aqk;
+                        }
+                        a[rowP + q] = 0;
+                        a[rowQ + p] = 0;
+                    }
+                });
+            }
+        }
+
+        Matrix D = Matrix.zeros(n, n);
+        for (int i = 0; i < n; i++) {
+            D.data[i * n + i] = a[i * n + i];
+        }
+        return new Pair(D, V);
+    }
 
     /**
      * Computes the Frobenius norm of the matrix.
@@ -416,11 +712,10 @@ public class Matrix implements Serializable {
      * @return the Euclidean (Frobenius) norm of the matrix
      */
     public double norm() {
+        double[] a = rowMajor();
         double sum = 0;
-        for (int i = 0; i < getHeight(); i++) {
-            for (int j = 0; j < getWidth(); j++) {
-                sum += values[i][j] * values[i][j];
-            }
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * a[i];
         }
         return Math.sqrt(sum);
     }
@@ -437,61 +732,33 @@ public class Matrix implements Serializable {
 
     /**
      * Returns the transpose of the given matrix.
+     * <p>
+     * The result is a view that shares storage with {@code m}: no elements are copied, and
+     * writes through either matrix are visible in the other. Use {@link #clone()} on the
+     * result if an independent copy is needed.
+     * </p>
      *
      * @param m the matrix to transpose
-     * @return a new {@code Matrix} that is the transpose of {@code m}
+     * @return a {@code Matrix} view that is the transpose of {@code m}
      */
     public static Matrix transpose(Matrix m) {
-        Matrix newm = m.clone();
-        double[][] temp = newm.transposed;
-        newm.transposed = newm.values;
-        newm.values = temp;
+        Matrix newm = new Matrix(m.cols, m.rows, m.data);
+        newm.offset = m.offset;
+        newm.rowStride = m.colStride;
+        newm.colStride = m.rowStride;
         return newm;
     }
 
     /**
      * Returns the transpose of this matrix.
      *
-     * @return a new {@code Matrix} that is the transpose of this matrix
+     * @return a {@code Matrix} view that is the transpose of this matrix
+     * @see #transpose(Matrix)
      */
     public Matrix transpose() {
         return Matrix.transpose(this);
     }
 
-    /**
-     * Helper method to transpose a two-dimensional array.
-     *
-     * @param values the array to transpose
-     * @return the transposed two-dimensional array
-     */
-    private static double[][] transpose2DArray(double[][] values) {
-        int rows = values.length;
-        int cols = values[0].length;
-        double[][] transposed = new double[cols][rows];
-
-        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        List<Future<?>> futures = new ArrayList<>();
-
-        for (int i = 0; i < rows; i++) {
-            final int row = i;
-            futures.add(executor.submit(() -> {
-                for (int j = 0; j < cols; j++) {
-                    transposed[j][row] = values[row][j];
-                }
-            }));
-        }
-
-        for (Future<?> future : futures) {
-            try {
-                future.get();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-        executor.shutdown();
-        return transposed;
-    }
-
     /**
      * Creates a zeros matrix with the specified dimensions.
      *
@@ -500,9 +767,7 @@ public class Matrix implements Serializable {
      * @return a {@code Matrix} filled with zeros
      */
     public static Matrix zeros(int height, int width) {
-        double[][] values = new double[height][width];
-        Matrix newm = new Matrix(values);
-        return newm;
+        return new Matrix(height, width);
     }
 
     /**
@@ -525,16 +790,15 @@ public class Matrix implements Serializable {
      * @throws ArithmeticException if the dimensions of the matrices do not match
      */
     public Matrix add(Matrix other) {
-        if ((other.values.length != this.values.length) || (other.values[0].length != this.values[0].length)) {
+        if ((other.rows != this.rows) || (other.cols != this.cols)) {
             throw new ArithmeticException("com.example.pcimg.Matrix's dimensions do not match");
         }
         Matrix result = new Matrix(this);
-        for (int i = 0; i < other.getHeight(); i++) {
-            for (int j = 0; j < other.getWidth(); j++) {
-                result.values[i][j] += other.values[i][j];
-            }
+        double[] r = result.data;
+        double[] o = other.rowMajor();
+        for (int i = 0; i < r.length; i++) {
+            r[i] += o[i];
         }
-        result.transposed = transpose2DArray(result.values);
         return result;
     }
 
@@ -558,16 +822,15 @@ public class Matrix implements Serializable {
      * @throws ArithmeticException if the dimensions of the matrices do not match
      */
     public Matrix subtract(Matrix other) {
-        if ((other.values.length != this.values.length) || (other.values[0].length != this.values[0].length)) {
+        if ((other.rows != this.rows) || (other.cols != this.cols)) {
             throw new ArithmeticException("com.example.pcimg.Matrix's dimensions do not match");
         }
         Matrix result = new Matrix(this);
-        for (int i = 0; i < other.getHeight(); i++) {
-            for (int j = 0; j < other.getWidth(); j++) {
-                result.values[i][j] -= other.values[i][j];
-            }
+        double[] r = result.data;
+        double[] o = other.rowMajor();
+        for (int i = 0; i < r.length; i++) {
+            r[i] -= o[i];
         }
-        result.transposed = transpose2DArray(result.values);
         return result;
     }
 
@@ -578,12 +841,12 @@ public class Matrix implements Serializable {
      * @return a new {@code Matrix} representing the Hadamard product
      */
     public Matrix hadamard(Matrix m2) {
-        double[][] arr = new double[m2.getHeight()][m2.getWidth()];
-        Matrix mulm = new Matrix(arr);
-        for (int i = 0; i < getHeight(); i++) {
-            for (int j = 0; j < getWidth(); j++) {
-                mulm.values[i][j] = this.values[i][j] * m2.values[i][j];
-            }
+        Matrix mulm = new Matrix(m2.getHeight(), m2.getWidth());
+        double[] r = mulm.data;
+        double[] a = this.rowMajor();
+        double[] b = m2.rowMajor();
+        for (int i = 0; i < r.length; i++) {
+            r[i] = a[i] * b[i];
         }
         return mulm;
     }
@@ -596,14 +859,9 @@ public class Matrix implements Serializable {
      */
     public Matrix dot(double f) {
         Matrix result = new Matrix(this);
-        int h = result.getHeight();
-        int w = result.getWidth();
-        for (int i = 0; i < h; i++) {
-            for (int j = 0; j < w; j++) {
-                double scaledValue = result.values[i][j] * f;
-                result.values[i][j] = scaledValue;
-                result.transposed[j][i] = scaledValue;
-            }
+        double[] r = result.data;
+        for (int i = 0; i < r.length; i++) {
+            r[i] *= f;
         }
         return result;
     }
@@ -639,6 +897,20 @@ public class Matrix implements Serializable {
      * @throws ArithmeticException if the dimensions do not align for multiplication
      */
     public Matrix dot(Matrix m) {
+        return dotAddRow(m, null);
+    }
+
+    /**
+     * Computes {@code this * m} plus {@code rowOffset} added to every row of the product. Each task
+     * starts its rows from the offset and accumulates the product onto it, so the addition costs no
+     * extra pass over the result.
+     *
+     * @param m         the matrix to multiply with
+     * @param rowOffset the values added to every row, of length {@code m.getWidth()}, or {@code null}
+     * @return a new {@code Matrix} equal to {@code this * m + 1 * rowOffset}
+     * @throws ArithmeticException if the dimensions do not align for multiplication
+     */
+    Matrix dotAddRow(Matrix m, double[] rowOffset) {
         if (this.getWidth() != m.getHeight()) {
             throw new ArithmeticException("Matrices can't be multiplied");
         }
@@ -646,44 +918,375 @@ public class Matrix implements Serializable {
         int N = m.getWidth();
         int K = this.getWidth();
         Matrix result = Matrix.zeros(M, N);
+        ComputePool.parallelFor(0, M, (long) K * N, (from, to) -> {
+            if (rowOffset != null) {
+                for (int i = from; i < to; i++) {
+                    System.arraycopy(rowOffset, 0, result.data, i * N, N);
+                }
+            }
+            multiplyRows(this, m, result.data, from, to);
+        });
+        return result;
+    }
+
+    /**
+     * Multiplies this matrix by a column vector.
+     * <p>
+     * Row-major matrices are processed as one dot product per row; column-major views
+     * (such as a transpose) accumulate whole columns instead, so both layouts read memory
+     * sequentially. Output rows are split across the {@link ComputePool}.
+     * </p>
+     *
+     * @param x the vector to multiply, of length width
+     * @return a new vector of length height equal to {@code this * x}
+     * @throws ArithmeticException if the length of {@code x} does not equal the width
+     */
+    public double[] dot(double[] x) {
+        if (x.length != cols) {
+            throw new ArithmeticException("Matrix and vector can't be multiplied");
+        }
+        double[] y = new double[rows];
+        ComputePool.parallelFor(0, rows, cols, (from, to) -> dotRows(x, from, to, y, from));
+        return y;
+    }
+
+    /**
+     * Computes rows {@code [from, to)} of {@code this * x} into {@code y}, starting at index
+     * {@code yOffset}, with the layout-aware loops of {@link #dot(double[])}. The inner loops are
+     * unrolled by four, with independent accumulators, so the JIT can keep several multiply-adds in flight.
+     *
+     * @param x       the vector to multiply, of length width
+     * @param from    the first row, inclusive
+     * @param to      the last row, exclusive
+     * @param y       receives the {@code to - from} results
+     * @param yOffset the index of the first result in {@code y}
+     */
+    void dotRows(double[] x, int from, int to, double[] y, int yOffset) {
+        if (colStride == 1) {
+            for (int i = from; i < to; i++) {
+                y[yOffset + i - from] = dotContiguous(data, offset + i * rowStride, x, 0, cols);
+            }
+        } else if (rowStride != 1) {
+            for (int i = from; i < to; i++) {
+                double sum = 0;
+                for (int k = 0; k < cols; k++) {
+                    sum += data[index(i, k)] * x[k];
+                }
+                y[yOffset + i - from] = sum;
+            }
+        } else {
+            // Column-major: add four columns per pass over the output slice.
+            int shift = yOffset - from;
+            Arrays.fill(y, yOffset, yOffset + to - from, 0);
+            int k = 0;
+            for (; k + 3 < cols; k += 4) {
+                double x0 = x[k], x1 = x[k + 1], x2 = x[k + 2], x3 = x[k + 3];
+                int c0 = offset + k * colStride;
+                int c1 = c0 + colStride, c2 = c1 + colStride, c3 = c2 + colStride;
+                for (int i = from; i < to; i++) {
+                    y[shift + i] += data[c0 + i] * x0 + data[c1 + i] * x1 + data[c2 + i] * x2 + data[c3 + i] * x3;
+                }
+            }
+            for (; k < cols; k++) {
+                double xk = x[k];
+                int col = offset + k * colStride;
+                for (int i = from; i < to; i++) {
+                    y[shift + i] += data[col + i] * xk;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the dot product of {@code n} consecutive elements of {@code a} starting at {@code start}
+     * with {@code n} consecutive elements of {@code x} starting at {@code xStart}, using four accumulators.
+     */
+    private static double dotContiguous(double[] a, int start, double[] x, int xStart, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int k = 0;
+        for (; k + 3 < n; k += 4) {
+            s0 += a[start + k] * x[xStart + k];
+            s1 += a[start + k + 1] * x[xStart + k + 1];
+            s2 += a[start + k + 2] * x[xStart + k + 2];
+            s3 += a[start + k + 3] * x[xStart + k + 3];
+        }
+        for (; k < n; k++) {
+            s0 += a[start + k] * x[xStart + k];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Multiplies a row vector by this matrix, {@code x^T * this}, i.e. the transpose of this matrix
+     * by {@code x}. This is the one-sample case of {@link #dot(Matrix)}, which can only split its
+     * work by rows of the left operand.
+     * <p>
+     * In a column-major matrix every output is a dot product with a contiguous column, so the
+     * outputs are split across the {@link ComputePool}. A row-major matrix is split into blocks of
+     * rows instead: each task adds {@code x[i]} times its rows into a private partial result, four
+     * rows per pass, and the partial results are summed at the end. Either way every element is read
+     * once, however narrow the result.
+     * </p>
+     *
+     * @param x the vector to multiply, of length height
+     * @return a new vector of length width equal to {@code x^T * this}
+     * @throws ArithmeticException if the length of {@code x} does not equal the height
+     */
+    public double[] transposeDot(double[] x) {
+        if (x.length != rows) {
+            throw new ArithmeticException("Vector and matrix can't be multiplied");
+        }
+        return transposeDot(x, 0);
+    }
+
+    /**
+     * Computes {@link #transposeDot(double[])} of the vector stored in {@code x} from index
+     * {@code xOffset}, e.g. one row of a row-major array of samples.
+     *
+     * @param x       holds the vector to multiply
+     * @param xOffset the index of its first element
+     * @return a new vector of length width
+     */
+    double[] transposeDot(double[] x, int xOffset) {
+        double[] y = new double[cols];
+        if (rowStride == 1 && colStride != 1) {
+            ComputePool.parallelFor(0, cols, rows, (from, to) -> {
+                for (int j = from; j < to; j++) {
+                    y[j] = dotContiguous(data, offset + j * colStride, x, xOffset, rows);
+                }
+            });
+            return y;
+        }
+        long work = (long) rows * cols;
+        int blocks = (int) Math.max(1, Math.min(rows, Math.min(ComputePool.getParallelism() * 4L,
+                work / ComputePool.INLINE_THRESHOLD)));
+        double[][] partial = new double[blocks][];
+        ComputePool.parallelFor(0, blocks, work / blocks, (from, to) -> {
+            for (int b = from; b < to; b++) {
+                double[] acc = b == 0 ? y : new double[cols];
+                addScaledRows(x, xOffset, (int) ((long) rows * b / blocks), (int) ((long) rows * (b + 1) / blocks), acc);
+                partial[b] = acc;
+            }
+        });
+        for (int b = 1; b < blocks; b++) {
+            double[] acc = partial[b];
+            for (int j = 0; j < cols; j++) {
+                y[j] += acc[j];
+            }
+        }
+        return y;
+    }
+
+    /**
+     * Adds {@code x[xOffset + i]} times row {@code i} to {@code acc} for the rows {@code [from, to)}.
+     */
+    private void addScaledRows(double[] x, int xOffset, int from, int to, double[] acc) {
+        if (colStride != 1) {
+            for (int i = from; i < to; i++) {
+                double xi = x[xOffset + i];
+                for (int j = 0; j < cols; j++) {
+                    acc[j] += data[index(i, j)] * xi;
+                }
+            }
+            return;
+        }
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            int xi = xOffset + i;
+            double x0 = x[xi], x1 = x[xi + 1], x2 = x[xi + 2], x3 = x[xi + 3];
+            int r0 = offset + i * rowStride;
+            int r1 = r0 + rowStride, r2 = r1 + rowStride, r3 = r2 + rowStride;
+            for (int j = 0; j < cols; j++) {
+                acc[j] += data[r0 + j] * x0 + data[r1 + j] * x1 + data[r2 + j] * x2 + data[r3 + j] * x3;
+            }
+        }
+        for (; i < to; i++) {
+            double xi = x[xOffset + i];
+            int row = offset + i * rowStride;
+            for (int j = 0; j < cols; j++) {
+                acc[j] += data[row + j] * xi;
+            }
+        }
+    }
+
+    /**
+     * Computes the symmetric rank-k product {@code A^T * A} of a matrix.
+     *
+     * @param m the matrix {@code A}
+     * @return a new symmetric {@code Matrix} equal to {@code m.transpose().dot(m)}
+     */
+    public static Matrix syrk(Matrix m) {
+        return m.syrk();
+    }
+
+    /**
+     * Computes the symmetric rank-k product {@code A^T * A} of this matrix (a SYRK operation).
+     * <p>
+     * Only the upper triangle is accumulated, reading this matrix row by row in cache-sized tiles;
+     * the lower triangle is mirrored at the end. This needs about half the multiply-adds of
+     * {@code transpose().dot(this)}. Output rows are distributed over the {@link ComputePool}.
+     * </p>
+     * <p>
+     * If this matrix is a column-major view such as {@code B.transpose()}, the product
+     * {@code B * B^T} is computed directly as dot products of the rows of {@code B}.
+     * </p>
+     *
+     * @return a new width x width symmetric {@code Matrix}
+     */
+    public Matrix syrk() {
+        int N = this.cols;
+        Matrix result = Matrix.zeros(N, N);
+        double[] c = result.data;
+        if (this.colStride != 1 && this.rowStride == 1) {
+            rowGramUpper(c);
+        } else {
+            syrkUpper(c);
+        }
+        ComputePool.parallelFor(0, N, N, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < i; j++) {
+                    c[i * N + j] = c[j * N + i];
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Accumulates the upper triangle of {@code A^T * A} into {@code c}, streaming rows of A.
+     * The lower triangle of {@code c} is left untouched.
+     *
+     * @param c a row-major width x width array to add into
+     */
+    void syrkUpper(double[] c) {
+        int R = this.rows;
+        int N = this.cols;
+        double[] a = this.colStride == 1 ? this.data : this.rowMajor();
+        int aOff = this.colStride == 1 ? this.offset : 0;
+        int aStride = this.colStride == 1 ? this.rowStride : N;
+        int rBlock = 128;
+        int jBlock = 256;
+        ComputePool.parallelFor(0, N, (long) R * N / 2, (from, to) -> {
+            for (int r0 = 0; r0 < R; r0 += rBlock) {
+                int rEnd = Math.min(r0 + rBlock, R);
+                for (int j0 = from; j0 < N; j0 += jBlock) {
+                    int jEnd = Math.min(j0 + jBlock, N);
+                    for (int i = from; i < to && i < jEnd; i++) {
+                        int cRow = i * N;
+                        int jStart = Math.max(i, j0);
+                        for (int r = r0; r < rEnd; r++) {
+                            int aRow = aOff + r * aStride;
+                            double aVal = a[aRow + i];
+                            if (aVal == 0) {
+                                continue;
+                            }
+                            for (int j = jStart; j < jEnd; j++) {
+                                c[cRow + j] += aVal * a[aRow + j];
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Fills the upper triangle of {@code A^T * A} for a column-major A, i.e. the Gram matrix
+     * {@code B * B^T} of the row-major matrix {@code B = A^T}, using contiguous row dot products.
+     */
+    private void rowGramUpper(double[] c) {
+        int K = this.rows;
+        int N = this.cols;
+        double[] b = this.data;
+        int bOff = this.offset;
+        int bStride = this.colStride;
+        int kBlock = 2048;
+        ComputePool.parallelFor(0, N, (long) K * N / 2, (from, to) -> {
+            for (int k0 = 0; k0 < K; k0 += kBlock) {
+                int kEnd = Math.min(k0 + kBlock, K);
+                for (int i = from; i < to; i++) {
+                    int rowI = bOff + i * bStride;
+                    for (int j = i; j < N; j++) {
+                        int rowJ = bOff + j * bStride;
+                        double sum = 0;
+                        for (int k = k0; k < kEnd; k++) {
+                            sum += b[rowI + k] * b[rowJ + k];
+                        }
+                        c[i * N + j] += sum;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes rows {@code [iStart, iEnd)} of {@code a * b} into the dense row-major array {@code c}.
+     * <p>
+     * Operands are read through their strides, so transposed views are multiplied in place.
+     * When {@code b} is row-major the kernel streams rows of {@code b} (i-k-j order); when {@code b}
+     * is column-major (e.g. a transposed view) and {@code a} is row-major it takes contiguous dot
+     * products of a row of {@code a} with a column of {@code b}.
+     * </p>
+     *
+     * @param a      the left operand
+     * @param b      the right operand
+     * @param c      the row-major output array of size {@code a.rows * b.cols}, accumulated into
+     * @param iStart the first output row, inclusive
+     * @param iEnd   the last output row, exclusive
+     */
+    private static void multiplyRows(Matrix a, Matrix b, double[] c, int iStart, int iEnd) {
+        int K = a.cols;
+        int N = b.cols;
+        double[] ad = a.data;
+        double[] bd = b.data;
         int blockSize = 64;
-        int numThreads = Runtime.getRuntime().availableProcessors();
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-        List<Future<?>> futures = new ArrayList<>();
-
-        for (int i0 = 0; i0 < M; i0 += blockSize) {
-            int iStart = i0;
-            int iEnd = Math.min(i0 + blockSize, M);
-            Future<?> future = executor.submit(() -> {
-                for (int k0 = 0; k0 < K; k0 += blockSize) {
-                    int kEnd = Math.min(k0 + blockSize, K);
-                    for (int j0 = 0; j0 < N; j0 += blockSize) {
-                        int jEnd = Math.min(j0 + blockSize, N);
-                        for (int i = iStart; i < iEnd; i++) {
+        if (b.colStride == 1) {
+            for (int k0 = 0; k0 < K; k0 += blockSize) {
+                int kEnd = Math.min(k0 + blockSize, K);
+                for (int j0 = 0; j0 < N; j0 += blockSize) {
+                    int jEnd = Math.min(j0 + blockSize, N);
+                    for (int i = iStart; i < iEnd; i++) {
+                        int cRow = i * N;
+                        for (int k = k0; k < kEnd; k++) {
+                            double aVal = ad[a.index(i, k)];
+                            int bRow = b.offset + k * b.rowStride;
+                            for (int j = j0; j < jEnd; j++) {
+                                c[cRow + j] += aVal * bd[bRow + j];
+                            }
+                        }
+                    }
+                }
+            }
+        } else if (b.rowStride == 1 && a.colStride == 1) {
+            for (int k0 = 0; k0 < K; k0 += blockSize) {
+                int kEnd = Math.min(k0 + blockSize, K);
+                for (int j0 = 0; j0 < N; j0 += blockSize) {
+                    int jEnd = Math.min(j0 + blockSize, N);
+                    for (int i = iStart; i < iEnd; i++) {
+                        int cRow = i * N;
+                        int aRow = a.offset + i * a.rowStride;
+                        for (int j = j0; j < jEnd; j++) {
+                            int bCol = b.offset + j * b.colStride;
+                            double sum = 0;
                             for (int k = k0; k < kEnd; k++) {
-                                double aVal = this.values[i][k];
-                                for (int j = j0; j < jEnd; j++) {
-                                    result.values[i][j] += aVal * m.values[k][j];
-                                }
+                                sum += ad[aRow + k] * bd[bCol + k];
                             }
+                            c[cRow + j] += sum;
                         }
                     }
                 }
-            });
-            futures.add(future);
-        }
-
-        for (Future<?> f : futures) {
-            try {
-                f.get();
-            } catch (Exception e) {
-                executor.shutdownNow();
-                throw new RuntimeException(e);
+            }
+        } else {
+            for (int i = iStart; i < iEnd; i++) {
+                int cRow = i * N;
+                for (int k = 0; k < K; k++) {
+                    double aVal = ad[a.index(i, k)];
+                    for (int j = 0; j < N; j++) {
+                        c[cRow + j] += aVal * bd[b.index(k, j)];
+                    }
+                }
             }
         }
-        executor.shutdown();
-        result.transposed = transpose2DArray(result.values);
-        return result;
     }
 
     /**
@@ -692,15 +1295,7 @@ public class Matrix implements Serializable {
      * @return a new {@code Matrix} with one row and the number of columns equal to the total elements in the original matrix
      */
     public Matrix flatten() {
-        double[][] arr = new double[1][getWidth() * getHeight()];
-        int count = 0;
-        for (int i = 0; i < getHeight(); i++) {
-            for (int j = 0; j < getWidth(); j++) {
-                arr[0][count] = this.values[i][j];
-                count++;
-            }
-        }
-        return new Matrix(arr);
+        return new Matrix(1, rows * cols, toRowMajorArray());
     }
 
     /**
@@ -711,8 +1306,7 @@ public class Matrix implements Serializable {
      * @param value the new value to set
      */
     public void set(int y, int x, double value) {
-        values[y][x] = value;
-        transposed[x][y] = value;
+        data[index(y, x)] = value;
     }
 
     /**
@@ -724,23 +1318,8 @@ public class Matrix implements Serializable {
      */
     public Matrix reshape(int width, int height) {
         Matrix m = Matrix.zeros(height, width);
-        double[] arr = new double[width * height];
-        int count = 0;
-        for (int i = 0; i < getHeight(); i++) {
-            for (int j = 0; j < getWidth(); j++) {
-                arr[count] = this.values[i][j];
-                count++;
-            }
-        }
-        count = 0;
-        double[][] newarr = new double[height][width];
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                newarr[i][j] = arr[count];
-                count++;
-            }
-        }
-        m.setValues(newarr);
+        double[] a = rowMajor();
+        System.arraycopy(a, 0, m.data, 0, Math.min(a.length, m.data.length));
         return m;
     }
 
@@ -769,8 +1348,7 @@ public class Matrix implements Serializable {
      * @param cols the number of columns
      */
     public Matrix(int rows, int cols) {
-        this.values = new double[rows][cols];
-        this.transposed = transpose2DArray(this.values);
+        this(rows, cols, new double[rows * cols]);
     }
 
     /**
@@ -780,13 +1358,7 @@ public class Matrix implements Serializable {
      * @return a new {@code Matrix} consisting of all columns and rows starting from index {@code k}
      */
     public Matrix minor(int k) {
-        int newRows = this.getHeight() - k;
-        int cols = this.getWidth();
-        double[][] sub = new double[newRows][cols];
-        for (int i = 0; i < newRows; i++) {
-            System.arraycopy(this.values[i + k], 0, sub[i], 0, cols);
-        }
-        return new Matrix(sub);
+        return getSubMatrix(k, this.getHeight() - k, 0, this.getWidth());
     }
 
     /**
@@ -796,12 +1368,11 @@ public class Matrix implements Serializable {
      * @return a new {@code Matrix} representing the column vector
      */
     public Matrix column(int col) {
-        int rows = this.getHeight();
-        double[][] colArr = new double[rows][1];
+        Matrix colm = new Matrix(rows, 1);
         for (int i = 0; i < rows; i++) {
-            colArr[i][0] = this.values[i][col];
+            colm.data[i] = get(i, col);
         }
-        return new Matrix(colArr);
+        return colm;
     }
 
     /**
@@ -816,7 +1387,7 @@ public class Matrix implements Serializable {
         }
         double sum = 0.0;
         for (int i = 0; i < this.getHeight(); i++) {
-            double val = this.values[i][0];
+            double val = get(i, 0);
             sum += val * val;
         }
         return Math.sqrt(sum);
@@ -857,7 +1428,7 @@ public class Matrix implements Serializable {
         Matrix uuT = Matrix.zeros(n, n);
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < n; j++) {
-                uuT.values[i][j] = u.values[i][0] * u.values[j][0];
+                uuT.data[i * n + j] = u.get(i, 0) * u.get(j, 0);
             }
         }
         return H.subtract(uuT.dot(2.0));
@@ -878,7 +1449,7 @@ public class Matrix implements Serializable {
         Matrix Q_total = Matrix.eye(m);
 
         for (int k = 0; k < Math.min(n, m - 1); k++) {
-            Matrix x = new Matrix(R.minor(k).column(k).values);
+            Matrix x = R.minor(k).column(k);
             double normX = x.magnitude();
             if (R.get(k, k) > 0) {
                 normX = -normX;
@@ -890,7 +1461,7 @@ public class Matrix implements Serializable {
             Matrix H = Matrix.eye(m);
             for (int i = k; i < m; i++) {
                 for (int j = k; j < m; j++) {
-                    H.set(i, j, H_sub.values[i - k][j - k]);
+                    H.set(i, j, H_sub.get(i - k, j - k));
                 }
             }
             R = H.dot(R);
@@ -932,6 +1503,42 @@ public class Matrix implements Serializable {
         return new Pair(D, Q_total);
     }
 
+    /**
+     * Writes the matrix as its dimensions followed by the row-major element array.
+     *
+     * @param out the stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("rows", rows);
+        fields.put("cols", cols);
+        fields.put("data", rowMajor());
+        out.writeFields();
+    }
+
+    /**
+     * Reads a matrix written by {@link #writeObject(ObjectOutputStream)}, or by older versions
+     * of this class that serialized a {@code double[][] values} field.
+     *
+     * @param in the stream to read from
+     * @throws IOException            if an I/O error occurs
+     * @throws ClassNotFoundException if a serialized class cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        if (fields.getObjectStreamClass().getField("values") != null) {
+            setValues((double[][]) fields.get("values", null));
+            return;
+        }
+        this.rows = fields.get("rows", 0);
+        this.cols = fields.get("cols", 0);
+        this.data = (double[]) fields.get("data", null);
+        this.offset = 0;
+        this.rowStride = cols;
+        this.colStride = 1;
+    }
+
     /**
      * Saves the matrix to a file using serialization.
      *
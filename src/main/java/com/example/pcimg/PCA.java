@@ -1,15 +1,97 @@
 package com.example.pcimg;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 
 public class PCA implements Serializable {
     private static final long serialVersionUID = 1L;
+
+    /**
+     * The principal components, one per column (features x k).
+     * <p>
+     * {@link #encode(Matrix)}, {@link #decode(Matrix)} and {@link #getModelId()} cache values derived
+     * from this matrix and {@link #avg}. Assigning a new matrix to either field is detected and
+     * refreshes the cache, but changing their elements in place is not: treat both matrices as
+     * read-only once the model is fitted or loaded, and replace them instead.
+     * </p>
+     */
     public Matrix v;
+
+    /** The mean of the training samples (1 x features); read-only once fitted, like {@link #v}. */
     public Matrix avg;
     static long time = 0;
 
+    /** Number of samples behind the incrementally fitted {@link #v}, or 0 for a model fitted in one pass. */
+    private long samplesSeen;
+
+    /** Singular values of the centered samples behind {@link #v}, along its columns, when fitted incrementally. */
+    private double[] singularValues;
+
+    /** Variance of the training data along each column of {@link #v}, or {@code null} if unknown. */
+    private double[] eigenvalues;
+
+    /** The mean folded into the projection, for the current {@link #v} and {@link #avg}. */
+    private transient volatile Projection projection;
+
+    /** Working copy of the components for incremental fitting, one per row (k x features). */
+    private transient double[] components;
+
+    /** Number of rows in {@link #components}. */
+    private transient int componentCount;
+
+    /** Running mean of the incremental fit, published to {@link #avg} by {@link #finish()}. */
+    private transient double[] runningMean;
+
+    /** Singular values along {@link #components}, published to {@link #singularValues} by {@link #finish()}. */
+    private transient double[] runningSingularValues;
+
+    /** Number of samples folded into {@link #components}, published to {@link #samplesSeen} by {@link #finish()}. */
+    private transient long runningSamples;
+
+    /**
+     * {@link #fit(Matrix, int)} switches to {@link #fitLanczos(Matrix, int)} when the number of
+     * retained components is at most the feature count divided by this ratio.
+     */
+    public static final int LANCZOS_RATIO = 8;
+
+    /** Default number of extra random directions sampled by {@link #fitRandomized(Matrix, int)}. */
+    public static final int DEFAULT_OVERSAMPLING = 10;
+
+    /** Default number of power iterations performed by {@link #fitRandomized(Matrix, int)}. */
+    public static final int DEFAULT_POWER_ITERATIONS = 2;
+
+    /**
+     * {@link #encode(Matrix)} and {@link #decode(Matrix)} handle inputs of at most this many samples as
+     * separate matrix-vector products, which split each sample across the {@link ComputePool}.
+     */
+    public static final int VECTOR_SAMPLES = 4;
+
+    /** Largest number of samples {@link #encodeBatch(List)} projects with one multiply. */
+    public static final int ENCODE_BLOCK_ROWS = 256;
+
+    /** Memory budget of the packed block of {@link #encodeBatch(List)}, which caps its rows for wide samples. */
+    public static final long ENCODE_BLOCK_BYTES = 64L << 20;
+
+    /** Size of the binary model header written by {@link #saveToFile(String, BinaryDataset.DataType)}. */
+    public static final int MODEL_HEADER_BYTES = 32;
+
+    private static final int MODEL_MAGIC = 'P' | 'C' << 8 | 'M' << 16 | 'D' << 24;
+    private static final int MODEL_VERSION = 1;
+    private static final int MODEL_FLAG_EIGENVALUES = 1;
+    private static final int MODEL_FLAG_INCREMENTAL = 2;
+
     /**
      * Normalizes the data matrix by subtracting the average of each feature.
      * <p>
@@ -50,7 +132,7 @@ public class PCA implements Serializable {
         double[] eigenvalues = new double[size];
 
         for (int i = 0; i < size; i++) {
-            eigenvalues[i] = values.getValues()[i][i];
+            eigenvalues[i] = values.get(i, i);
         }
 
         Integer[] indexes = new Integer[size];
@@ -66,6 +148,31 @@ public class PCA implements Serializable {
         return sortedVectors;
     }
 
+    /**
+     * Converts the eigenvalues of the co-moment matrix {@code X^T X} of centered data into the
+     * variances of the leading {@code outfeatures} components, in descending order. Components
+     * beyond the available eigenvalues get zero variance.
+     *
+     * @param values  a diagonal matrix of co-moment eigenvalues in any order
+     * @param outfeatures the number of retained components
+     * @param samples the number of samples behind the co-moment matrix
+     * @return the component variances
+     */
+    private static double[] componentVariances(Matrix values, int outfeatures, long samples) {
+        int size = values.getWidth();
+        double[] sorted = new double[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = values.get(i, i);
+        }
+        Arrays.sort(sorted);
+        double scale = 1.0 / Math.max(1, samples - 1);
+        double[] variances = new double[outfeatures];
+        for (int i = 0; i < Math.min(outfeatures, size); i++) {
+            variances[i] = Math.max(0, sorted[size - 1 - i]) * scale;
+        }
+        return variances;
+    }
+
     /**
      * Constructs a new {@code PCA} object for data with the specified number of features.
      *
@@ -79,47 +186,437 @@ public class PCA implements Serializable {
     /**
      * Fits the PCA model to the provided data.
      * <p>
-     * This method normalizes the data, computes the covariance matrix, performs eigen decomposition
+     * This method normalizes the data, computes the covariance matrix with {@link Matrix#syrk()}, performs eigen decomposition
      * on the covariance matrix, and sorts the eigenvectors by eigenvalue magnitude. Only the top
      * {@code outfeatures} eigenvectors are retained.
      * </p>
+     * <p>
+     * The algorithm is chosen from the shape of {@code x}: with fewer samples than features the
+     * samples x samples Gram matrix is decomposed instead ({@link #fitSnapshot(Matrix, int)}); otherwise,
+     * when {@code outfeatures} is small compared to the number of features (see {@link #LANCZOS_RATIO}),
+     * only the retained components are computed, using {@link #fitLanczos(Matrix, int)}.
+     * </p>
      *
      * @param x           the input data matrix where each row is a sample and each column is a feature
      * @param outfeatures the number of principal components (eigenvectors) to retain
+     * @throws ArithmeticException if the eigen iteration does not converge; for a spectrum too clustered
+     *                             for Lanczos, {@link #fit(Matrix, int, Matrix.EigenMethod)} with
+     *                             {@link Matrix.EigenMethod#TRIDIAGONAL_QL} computes the full decomposition
      */
     public void fit(Matrix x, int outfeatures) throws Exception {
+        if (x.getHeight() < x.getWidth()) {
+            fitSnapshot(x, outfeatures);
+        } else if ((long) outfeatures * LANCZOS_RATIO <= x.getWidth()) {
+            fitLanczos(x, outfeatures);
+        } else {
+            fit(x, outfeatures, Matrix.EigenMethod.TRIDIAGONAL_QL);
+        }
+    }
+
+    /**
+     * Fits the PCA model from precomputed streaming statistics.
+     * <p>
+     * The mean and co-moment matrix are taken from {@code stats}, so the samples themselves are never
+     * held in memory. As in {@link #fit(Matrix, int)}, the leading eigenvectors are found with
+     * {@link LanczosSolver} when {@code outfeatures} is small compared to the number of features,
+     * and with a full eigen decomposition otherwise.
+     * </p>
+     *
+     * @param stats       the accumulated mean and co-moment of the training samples
+     * @param outfeatures the number of principal components (eigenvectors) to retain
+     * @throws ArithmeticException if the eigen iteration does not converge
+     */
+    public void fit(CovarianceAccumulator stats, int outfeatures) throws Exception {
+        resetIncremental();
+        int features = stats.getFeatures();
+        avg = stats.getMean();
+        Matrix cov = stats.getCoMoment();
+        Matrix.Pair eigenPair;
+        if ((long) outfeatures * LANCZOS_RATIO <= features) {
+            eigenPair = LanczosSolver.largest(LanczosSolver.of(cov), features, outfeatures);
+            v = eigenPair.getSecond();
+        } else {
+            eigenPair = Matrix.eigen(cov);
+            Matrix sortedVectors = sortEigenVectors(eigenPair.getFirst(), eigenPair.getSecond());
+            v = sortedVectors.getSubMatrix(0, features, 0, outfeatures);
+        }
+        eigenvalues = componentVariances(eigenPair.getFirst(), outfeatures, stats.getCount());
+        projection = new Projection(v, avg, eigenvalues);
+    }
+
+    /**
+     * Fits the PCA model from a Frequent Directions sketch built in one pass over the data.
+     * <p>
+     * The covariance {@code X^T X - n mean^T mean} is approximated by {@code B^T B - n mean^T mean},
+     * whose spectral error is at most {@link FrequentDirections#getErrorBound()}. The leading
+     * eigenvectors are found with {@link LanczosSolver} on that operator, so no features x features
+     * matrix is formed.
+     * </p>
+     *
+     * @param sketch      the sketch of the training samples
+     * @param outfeatures the number of principal components to retain; must be less than the sketch size
+     * @throws IllegalArgumentException if {@code outfeatures} is not less than the sketch size
+     * @throws ArithmeticException      if the Lanczos iteration does not converge
+     */
+    public void fit(FrequentDirections sketch, int outfeatures) {
+        if (outfeatures >= sketch.getSketchSize()) {
+            throw new IllegalArgumentException("Sketch size " + sketch.getSketchSize()
+                    + " is too small for " + outfeatures + " components");
+        }
+        resetIncremental();
+        int features = sketch.getFeatures();
+        Matrix B = sketch.getSketch();
+        Matrix Bt = B.transpose();
+        avg = sketch.getMean();
+        double[] mean = avg.toRowMajorArray();
+        double n = sketch.getCount();
+        LanczosSolver.Operator cov = x -> {
+            double[] y = B.getHeight() == 0 ? new double[features] : Bt.dot(B.dot(x));
+            double meanDot = 0;
+            for (int j = 0; j < features; j++) {
+                meanDot += mean[j] * x[j];
+            }
+            for (int j = 0; j < features; j++) {
+                y[j] -= n * meanDot * mean[j];
+            }
+            return y;
+        };
+        Matrix.Pair eigenPair = LanczosSolver.largest(cov, features, outfeatures);
+        v = eigenPair.getSecond();
+        eigenvalues = componentVariances(eigenPair.getFirst(), outfeatures, sketch.getCount());
+        projection = new Projection(v, avg, eigenvalues);
+    }
+
+    /**
+     * Updates the model with a mini-batch, keeping the current number of components.
+     * <p>
+     * If no components exist yet, {@code min(batch height, features)} components are kept.
+     * </p>
+     *
+     * @param batch the samples to add, one per row
+     * @see #partialFit(Matrix, int)
+     */
+    public void partialFit(Matrix batch) {
+        int k = components != null ? componentCount
+                : v != null ? v.getWidth() : Math.min(batch.getHeight(), batch.getWidth());
+        partialFit(batch, k);
+    }
+
+    /**
+     * Updates the model with a mini-batch of samples (incremental PCA of Ross et al.).
+     * <p>
+     * The running mean and a rank-{@code outfeatures} basis are updated from the singular value
+     * decomposition of the stacked matrix
+     * {@code [diag(s) V^T; batch - batchMean; sqrt(n b / (n + b)) (batchMean - mean)]}, which has only
+     * {@code outfeatures + b + 1} rows. That decomposition is obtained from its small Gram matrix, so
+     * memory stays bounded by batch size x features plus {@code outfeatures} x features.
+     * </p>
+     * <p>
+     * The running mean, components and singular values are kept apart from the model: {@link #avg},
+     * {@link #v}, the eigenvalues and what {@link #saveToFile(String)} writes only change when
+     * {@link #finish()} publishes them, so the model stays consistent between batches. A model that
+     * was trained incrementally, including one loaded from a file, can be updated further; a model
+     * fitted in one pass is replaced by the first batch.
+     * </p>
+     *
+     * @param batch       the samples to add, one per row
+     * @param outfeatures the number of principal components to keep
+     * @throws IllegalArgumentException if the batch width differs from the model's feature count
+     */
+    public void partialFit(Matrix batch, int outfeatures) {
+        int features = batch.getWidth();
+        int b = batch.getHeight();
+        if (avg != null && avg.getWidth() != features) {
+            throw new IllegalArgumentException("Expected " + avg.getWidth() + " features but got " + features);
+        }
+        if (b == 0) {
+            return;
+        }
+        if (components == null) {
+            startIncremental();
+        }
+
+        double[] batchMean = new double[features];
+        for (int i = 0; i < b; i++) {
+            for (int j = 0; j < features; j++) {
+                batchMean[j] += batch.get(i, j);
+            }
+        }
+        for (int j = 0; j < features; j++) {
+            batchMean[j] /= b;
+        }
+
+        int prior = runningSamples == 0 ? 0 : componentCount;
+        int extra = runningSamples == 0 ? 0 : 1;
+        int rows = prior + b + extra;
+        double[] stacked = new double[rows * features];
+        for (int i = 0; i < prior; i++) {
+            double s = runningSingularValues[i];
+            for (int j = 0; j < features; j++) {
+                stacked[i * features + j] = s * components[i * features + j];
+            }
+        }
+        for (int i = 0; i < b; i++) {
+            int row = (prior + i) * features;
+            for (int j = 0; j < features; j++) {
+                stacked[row + j] = batch.get(i, j) - batchMean[j];
+            }
+        }
+        if (extra == 1) {
+            double w = Math.sqrt((double) runningSamples * b / (runningSamples + b));
+            int row = (rows - 1) * features;
+            for (int j = 0; j < features; j++) {
+                stacked[row + j] = w * (batchMean[j] - runningMean[j]);
+            }
+        }
+        Matrix M = new Matrix(rows, features, stacked);
+
+        // Right singular vectors of M from the eigenvectors of M M^T: v_i = M^T u_i / s_i.
+        Matrix.Pair eigenPair = EigenCalculator.calculateEigen(M.transpose().syrk());
+        Matrix sortedVectors = sortEigenVectors(eigenPair.getFirst(), eigenPair.getSecond());
+        double[] squared = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            squared[i] = eigenPair.getFirst().get(i, i);
+        }
+        Arrays.sort(squared);
+        int k = Math.min(outfeatures, Math.min(rows, features));
+        Matrix projected = sortedVectors.getSubMatrix(0, rows, 0, k).transpose().dot(M);
+        double[] updated = projected.toRowMajorArray();
+        double[] updatedValues = new double[k];
+        double largest = Math.sqrt(Math.max(0, squared[rows - 1]));
+        for (int i = 0; i < k; i++) {
+            double s = Math.sqrt(Math.max(0, squared[rows - 1 - i]));
+            boolean degenerate = s <= 1e-10 * largest;
+            updatedValues[i] = degenerate ? 0 : s;
+            for (int j = 0; j < features; j++) {
+                updated[i * features + j] = degenerate ? 0 : updated[i * features + j] / s;
+            }
+        }
+        components = updated;
+        componentCount = k;
+        runningSingularValues = updatedValues;
+
+        long total = runningSamples + b;
+        double[] mean = new double[features];
+        for (int j = 0; j < features; j++) {
+            double prev = runningSamples == 0 ? 0 : runningMean[j];
+            mean[j] = prev + (batchMean[j] - prev) * b / total;
+        }
+        runningMean = mean;
+        runningSamples = total;
+    }
+
+    /**
+     * Starts the running state of an incremental fit: from the published model if it was itself
+     * fitted incrementally, for instance before it was saved, and empty otherwise.
+     */
+    private void startIncremental() {
+        if (samplesSeen > 0 && v != null && singularValues != null && singularValues.length == v.getWidth()) {
+            componentCount = v.getWidth();
+            components = v.transpose().toRowMajorArray();
+            runningSingularValues = singularValues.clone();
+            runningMean = avg.toRowMajorArray();
+            runningSamples = samplesSeen;
+        } else {
+            componentCount = 0;
+            runningSingularValues = null;
+            runningMean = null;
+            runningSamples = 0;
+        }
+    }
+
+    /**
+     * Discards all incremental state, so that a model fitted in one pass is not saved or resumed as
+     * an incremental one. Called by every batch fit.
+     */
+    private void resetIncremental() {
+        samplesSeen = 0;
+        singularValues = null;
+        components = null;
+        componentCount = 0;
+        runningSingularValues = null;
+        runningMean = null;
+        runningSamples = 0;
+    }
+
+    /**
+     * Publishes the mean, components and singular values accumulated by
+     * {@link #partialFit(Matrix, int)} to {@link #avg}, {@link #v} and the eigenvalues.
+     * Further batches may be added afterwards.
+     */
+    public void finish() {
+        if (components == null || runningSamples == 0) {
+            return;
+        }
+        int features = runningMean.length;
+        avg = new Matrix(1, features, runningMean.clone());
+        v = new Matrix(componentCount, features, components.clone()).transpose().clone();
+        singularValues = runningSingularValues.clone();
+        samplesSeen = runningSamples;
+        eigenvalues = new double[componentCount];
+        for (int i = 0; i < componentCount; i++) {
+            eigenvalues[i] = singularValues[i] * singularValues[i] / Math.max(1, samplesSeen - 1);
+        }
+        projection = new Projection(v, avg, eigenvalues);
+    }
+
+    /**
+     * Returns the number of samples behind the incrementally fitted model, as published by the last
+     * {@link #finish()}; batches added since then are not counted.
+     *
+     * @return the incremental sample count, or 0 for a model fitted in one pass
+     */
+    public long getSamplesSeen() {
+        return samplesSeen;
+    }
+
+    /**
+     * Fits the PCA model by computing only the leading {@code outfeatures} eigenpairs of the covariance.
+     * <p>
+     * The covariance is never formed: {@link LanczosSolver} works directly on the centered data
+     * through the operator {@code v -> X^T (X v)}.
+     * </p>
+     *
+     * @param x           the input data matrix where each row is a sample and each column is a feature
+     * @param outfeatures the number of principal components (eigenvectors) to retain
+     * @throws ArithmeticException if the Lanczos iteration does not converge
+     */
+    public void fitLanczos(Matrix x, int outfeatures) {
+        resetIncremental();
+        int samples = x.getHeight();
+        x = x.clone();
+        normalizeData(x);
+        Matrix.Pair eigenPair = LanczosSolver.largest(LanczosSolver.gram(x), x.getWidth(), outfeatures);
+        v = eigenPair.getSecond();
+        eigenvalues = componentVariances(eigenPair.getFirst(), outfeatures, samples);
+        projection = new Projection(v, avg, eigenvalues);
+    }
+
+    /**
+     * Fits the PCA model with the snapshot method, for data with fewer samples than features.
+     * <p>
+     * The samples x samples Gram matrix {@code X X^T} of the centered data has the same nonzero
+     * eigenvalues as the covariance {@code X^T X}, and each of its eigenvectors {@code u} maps to a
+     * covariance eigenvector {@code X^T u}. Only the Gram matrix is decomposed, so memory is
+     * O(samples^2) rather than O(features^2). Components beyond the rank of the data are left as zero columns.
+     * </p>
+     *
+     * @param x           the input data matrix where each row is a sample and each column is a feature
+     * @param outfeatures the number of principal components (eigenvectors) to retain
+     */
+    public void fitSnapshot(Matrix x, int outfeatures) {
+        resetIncremental();
+        int samples = x.getHeight();
         x = x.clone();
-        System.out.println("Normalizing");
         normalizeData(x);
-        System.out.println("covving");
-        Matrix cov = x.transpose().dot(x);
+        Matrix gram = x.transpose().syrk();
+        Matrix.Pair eigenPair = EigenCalculator.calculateEigen(gram);
+        Matrix sortedVectors = sortEigenVectors(eigenPair.getFirst(), eigenPair.getSecond());
+        int kept = Math.min(outfeatures, samples);
+        Matrix components = x.transpose().dot(sortedVectors.getSubMatrix(0, samples, 0, kept));
 
-        // Optional: print a specific row from the covariance matrix
-        System.out.println(cov.getR(391));
+        double largest = 0;
+        double[] norms = new double[kept];
+        for (int j = 0; j < kept; j++) {
+            norms[j] = components.getC(j).norm();
+            largest = Math.max(largest, norms[j]);
+        }
+        v = Matrix.zeros(x.getWidth(), outfeatures);
+        for (int j = 0; j < kept; j++) {
+            if (norms[j] <= 1e-6 * largest) {
+                continue;
+            }
+            for (int i = 0; i < x.getWidth(); i++) {
+                v.set(i, j, components.get(i, j) / norms[j]);
+            }
+        }
+        eigenvalues = componentVariances(eigenPair.getFirst(), outfeatures, samples);
+        projection = new Projection(v, avg, eigenvalues);
+    }
 
+    /**
+     * Fits the PCA model with a randomized range finder, using {@link #DEFAULT_OVERSAMPLING} and
+     * {@link #DEFAULT_POWER_ITERATIONS}.
+     *
+     * @param x           the input data matrix where each row is a sample and each column is a feature
+     * @param outfeatures the number of principal components (eigenvectors) to retain
+     * @see #fitRandomized(Matrix, int, int, int)
+     */
+    public void fitRandomized(Matrix x, int outfeatures) {
+        fitRandomized(x, outfeatures, DEFAULT_OVERSAMPLING, DEFAULT_POWER_ITERATIONS);
+    }
 
+    /**
+     * Fits the PCA model with a randomized range finder (Halko, Martinsson and Tropp).
+     * <p>
+     * A Gaussian test matrix of {@code outfeatures + oversampling} columns is multiplied through
+     * the centered data {@code X^T X} once plus {@code powerIterations} more times, re-orthonormalizing
+     * with {@link Matrix#qr(Matrix)} after each pass. The components are then the Ritz vectors of the
+     * small projected covariance {@code (X Q)^T (X Q)}. The features x features covariance is never formed.
+     * </p>
+     * <p>
+     * More oversampling and more power iterations improve accuracy when the spectrum decays slowly,
+     * at the cost of extra passes over the data.
+     * </p>
+     *
+     * @param x               the input data matrix where each row is a sample and each column is a feature
+     * @param outfeatures     the number of principal components (eigenvectors) to retain
+     * @param oversampling    the number of extra random directions sampled beyond {@code outfeatures}
+     * @param powerIterations the number of additional passes of {@code X^T X} over the sampled subspace
+     * @throws IllegalArgumentException if {@code outfeatures} exceeds the number of features, or
+     *                                  {@code oversampling} or {@code powerIterations} is negative
+     */
+    public void fitRandomized(Matrix x, int outfeatures, int oversampling, int powerIterations) {
+        int features = x.getWidth();
+        int samples = x.getHeight();
+        if (outfeatures < 1 || outfeatures > features || oversampling < 0 || powerIterations < 0) {
+            throw new IllegalArgumentException("Invalid randomized PCA parameters");
+        }
+        resetIncremental();
+        x = x.clone();
+        normalizeData(x);
 
-        System.out.println("Eigening");
-        Matrix.Pair eigenPair = Matrix.eigen(cov);
-        Matrix sortedVectors = sortEigenVectors(eigenPair.getFirst(), eigenPair.getSecond());
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("maniak.txt"))) {
-            int rows = eigenPair.getSecond().getHeight();
-            int cols = eigenPair.getSecond().getWidth();
-            for (int i = 0; i < rows; i++) {
-                StringBuilder sb = new StringBuilder();
-                for (int j = 0; j < cols; j++) {
-                    sb.append(eigenPair.getSecond().get(i, j));
-                    if (j < cols - 1) {
-                        sb.append(", ");
-                    }
-                }
-                writer.write(sb.toString());
-                writer.newLine();
+        int l = Math.min(features, outfeatures + oversampling);
+        Random random = new Random(42);
+        Matrix Q = Matrix.zeros(features, l);
+        for (int i = 0; i < features; i++) {
+            for (int j = 0; j < l; j++) {
+                Q.set(i, j, random.nextGaussian());
             }
-        } catch (IOException e) {
-            System.err.println("Error writing covariance matrix to file: " + e.getMessage());
         }
+        Matrix xt = x.transpose();
+        for (int iter = 0; iter <= powerIterations; iter++) {
+            Q = Matrix.qr(xt.dot(x.dot(Q))).getFirst();
+        }
+
+        // Rayleigh-Ritz on span(Q): eigenvectors of Q^T X^T X Q, mapped back through Q.
+        Matrix.Pair eigenPair = EigenCalculator.calculateEigen(x.dot(Q).syrk());
+        Matrix sortedVectors = sortEigenVectors(eigenPair.getFirst(), eigenPair.getSecond());
+        v = Q.dot(sortedVectors.getSubMatrix(0, l, 0, outfeatures));
+        eigenvalues = componentVariances(eigenPair.getFirst(), outfeatures, samples);
+        projection = new Projection(v, avg, eigenvalues);
+    }
+
+    /**
+     * Fits the PCA model to the provided data, decomposing the covariance matrix with the given
+     * eigen algorithm.
+     *
+     * @param x           the input data matrix where each row is a sample and each column is a feature
+     * @param outfeatures the number of principal components (eigenvectors) to retain
+     * @param method      the eigen algorithm used on the covariance matrix
+     * @see #fit(Matrix, int)
+     */
+    public void fit(Matrix x, int outfeatures, Matrix.EigenMethod method) throws Exception {
+        resetIncremental();
+        int samples = x.getHeight();
+        x = x.clone();
+        normalizeData(x);
+        Matrix cov = x.syrk();
+        Matrix.Pair eigenPair = Matrix.eigen(cov, method);
+        Matrix sortedVectors = sortEigenVectors(eigenPair.getFirst(), eigenPair.getSecond());
         v = sortedVectors.getSubMatrix(0, sortedVectors.getHeight(), 0, outfeatures);
+        eigenvalues = componentVariances(eigenPair.getFirst(), outfeatures, samples);
+        projection = new Projection(v, avg, eigenvalues);
     }
 
     /**
@@ -135,50 +632,236 @@ public class PCA implements Serializable {
     /**
      * Encodes the input data into a lower-dimensional representation using the fitted PCA model.
      * <p>
-     * The method normalizes the data by subtracting the mean and then projects it onto the subspace
-     * defined by the eigenvectors stored in {@code v}.
+     * The method projects the data onto the subspace defined by the eigenvectors stored in {@code v}
+     * and centers the result. Since the projection is linear, {@code (x - avg) v = x v - avg v}; the
+     * bias {@code avg v} is computed once per model, so the input is neither copied nor modified, and
+     * each output starts from the negated bias and accumulates the product in a single pass. Up to
+     * {@value #VECTOR_SAMPLES} samples are projected one at a time with
+     * {@link Matrix#transposeDot(double[])}, which spreads a single sample over all workers; larger
+     * inputs use one matrix multiply.
      * </p>
      *
      * @param data the original data matrix to encode
      * @return a new {@code Matrix} representing the data in the reduced-dimensional space
+     * @throws ArithmeticException if the width of {@code data} is not the model's feature count
      */
     public Matrix encode(Matrix data) {
-        Matrix x = data.clone();
-        int samples = x.getHeight();
-        int features = x.getWidth();
-        // Subtract the computed average from each sample.
+        Projection p = projection();
+        int samples = data.getHeight();
+        int features = data.getWidth();
+        if (features != p.decodeOffset.length) {
+            throw new ArithmeticException("Expected " + p.decodeOffset.length + " features but got " + features);
+        }
+        if (samples > VECTOR_SAMPLES) {
+            return data.dotAddRow(v, p.encodeOffset);
+        }
+        int k = v.getWidth();
+        double[] x = data.rowMajor();
+        double[] projected = new double[samples * k];
         for (int i = 0; i < samples; i++) {
-            for (int j = 0; j < features; j++) {
-                x.set(i, j, x.get(i, j) - avg.get(0, j));
+            double[] y = v.transposeDot(x, i * features);
+            for (int j = 0; j < k; j++) {
+                projected[i * k + j] = y[j] + p.encodeOffset[j];
+            }
+        }
+        return new Matrix(samples, k, projected);
+    }
+
+    /**
+     * Encodes many inputs together, as if by calling {@link #encode(Matrix)} on each.
+     * <p>
+     * The rows of all inputs are copied into one contiguous block of up to {@value #ENCODE_BLOCK_ROWS}
+     * samples (fewer for samples so wide that the block would exceed {@value #ENCODE_BLOCK_BYTES} bytes),
+     * each block is projected with a single multiply that reads the components once for all its rows
+     * and is split across the {@link ComputePool}, and the projected rows are copied back to one
+     * result per input. Inputs may have any number of rows, and a block may span several inputs.
+     * </p>
+     *
+     * @param samples the inputs, each with one sample per row
+     * @return the encoded inputs, in the same order
+     * @throws ArithmeticException if an input's width is not the model's feature count
+     */
+    public List<Matrix> encodeBatch(List<Matrix> samples) {
+        int features = projection().decodeOffset.length;
+        long total = 0;
+        for (Matrix sample : samples) {
+            if (sample.getWidth() != features) {
+                throw new ArithmeticException("Expected " + features + " features but got " + sample.getWidth());
+            }
+            total += sample.getHeight();
+        }
+        BlockEncoder encoder = new BlockEncoder(total);
+        List<Matrix> encoded = new ArrayList<>(samples.size());
+        int k = v.getWidth();
+        for (Matrix sample : samples) {
+            int rows = sample.getHeight();
+            double[] x = sample.rowMajor();
+            double[] result = new double[rows * k];
+            for (int r = 0; r < rows; r++) {
+                int at = encoder.add(result, r * k);
+                System.arraycopy(x, r * features, encoder.block, at, features);
+            }
+            encoded.add(new Matrix(rows, k, result));
+        }
+        encoder.flush();
+        return encoded;
+    }
+
+    /**
+     * Encodes a stream of images, as if by calling {@link #encode(Matrix)} on
+     * {@link ImageUtils#imageToRGBRowMatrix(BufferedImage)} of each, with the blocking of
+     * {@link #encodeBatch(List)}. The pixels of every image are extracted straight into the packed
+     * block, and images are pulled from the iterator only as the block fills, so only one block of
+     * pixels is held at a time.
+     *
+     * @param images the images; each must have {@code 3 * width * height} equal to the feature count
+     * @return one 1 x k encoded row per image, in the same order
+     * @throws IllegalArgumentException if an image's size does not match the model
+     */
+    public List<Matrix> encodeBatch(Iterator<BufferedImage> images) {
+        int features = projection().decodeOffset.length;
+        BlockEncoder encoder = new BlockEncoder(Long.MAX_VALUE);
+        List<Matrix> encoded = new ArrayList<>();
+        int k = v.getWidth();
+        while (images.hasNext()) {
+            BufferedImage image = images.next();
+            if (3L * image.getWidth() * image.getHeight() != features) {
+                throw new IllegalArgumentException("Image " + encoded.size() + " is " + image.getWidth() + "x"
+                        + image.getHeight() + " but the model expects " + features + " features");
             }
+            double[] result = new double[k];
+            int at = encoder.add(result, 0);
+            ImageUtils.rgbPlanes(image, encoder.block, at);
+            encoded.add(new Matrix(1, k, result));
+        }
+        encoder.flush();
+        return encoded;
+    }
+
+    /**
+     * Collects sample rows into a packed block and projects each full block with one multiply,
+     * copying every projected row to where its caller asked.
+     */
+    private final class BlockEncoder {
+        private final Projection p = projection();
+        private final int features = p.decodeOffset.length;
+        private final int capacity;
+        /** The packed rows; grows up to {@code capacity} rows when the total is not known, so read it after {@link #add}. */
+        double[] block;
+        private double[][] targets;
+        private int[] targetOffsets;
+        private int rows;
+
+        /**
+         * @param total the number of rows that will be added, or {@link Long#MAX_VALUE} if unknown
+         */
+        BlockEncoder(long total) {
+            long budget = Math.max(1, ENCODE_BLOCK_BYTES / (8L * Math.max(1, features)));
+            capacity = (int) Math.max(1, Math.min(total, Math.min(ENCODE_BLOCK_ROWS, budget)));
+            int initial = total == Long.MAX_VALUE ? Math.min(capacity, 16) : capacity;
+            block = new double[initial * features];
+            targets = new double[initial][];
+            targetOffsets = new int[initial];
+        }
+
+        /**
+         * Reserves the next row of the block, projecting the block first if it is full.
+         *
+         * @param target       receives the k projected values of the row
+         * @param targetOffset the index of the first value in {@code target}
+         * @return the index in {@link #block} where the caller must write the row's features
+         */
+        int add(double[] target, int targetOffset) {
+            if (rows == capacity) {
+                flush();
+            } else if (rows == targets.length) {
+                int grown = Math.min(capacity, rows * 2);
+                block = Arrays.copyOf(block, grown * features);
+                targets = Arrays.copyOf(targets, grown);
+                targetOffsets = Arrays.copyOf(targetOffsets, grown);
+            }
+            targets[rows] = target;
+            targetOffsets[rows] = targetOffset;
+            return rows++ * features;
+        }
+
+        /**
+         * Projects the rows added since the last flush.
+         */
+        void flush() {
+            if (rows == 0) {
+                return;
+            }
+            int k = v.getWidth();
+            // A view of the first rows of the block; a partial block is not copied.
+            double[] projected = new Matrix(rows, features, block).dotAddRow(v, p.encodeOffset).rowMajor();
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(projected, r * k, targets[r], targetOffsets[r], k);
+                targets[r] = null;
+            }
+            rows = 0;
         }
-        System.out.println(data.getHeight() + "-Height");
-        System.out.println(data.getWidth() + "-Width");
-        // Project the normalized data onto the principal components.
-        return x.dot(v);
     }
 
     /**
      * Decodes the lower-dimensional representation back into the original data space.
      * <p>
-     * The method projects the encoded data back to the original space using the transposed eigenvector matrix,
-     * and then adds back the average that was subtracted during encoding.
+     * The method projects the encoded data back to the original space using the transposed eigenvector
+     * matrix, and adds back the average that was subtracted during encoding in the same pass: each
+     * output row starts from the average and accumulates the product. Up to {@value #VECTOR_SAMPLES}
+     * samples are reconstructed one at a time, split over the features.
      * </p>
      *
      * @param encoded the encoded data matrix
      * @return a new {@code Matrix} representing the reconstructed data in the original space
+     * @throws ArithmeticException if the width of {@code encoded} is not the model's component count
      */
     public Matrix decode(Matrix encoded) {
-        Matrix x = encoded.dot(v.transpose());
-        int samples = x.getHeight();
-        int features = x.getWidth();
-        // Add the average back to each sample.
+        Projection p = projection();
+        int samples = encoded.getHeight();
+        int k = encoded.getWidth();
+        if (k != v.getWidth()) {
+            throw new ArithmeticException("Expected " + v.getWidth() + " components but got " + k);
+        }
+        if (samples > VECTOR_SAMPLES) {
+            return encoded.dotAddRow(v.transpose(), p.decodeOffset);
+        }
+        int features = p.decodeOffset.length;
+        double[] c = encoded.rowMajor();
+        double[] decoded = new double[samples * features];
         for (int i = 0; i < samples; i++) {
-            for (int j = 0; j < features; j++) {
-                x.set(i, j, x.get(i, j) + avg.get(0, j));
-            }
+            double[] coefficients = Arrays.copyOfRange(c, i * k, (i + 1) * k);
+            int base = i * features;
+            ComputePool.parallelFor(0, features, k, (from, to) -> {
+                v.dotRows(coefficients, from, to, decoded, base + from);
+                for (int j = from; j < to; j++) {
+                    decoded[base + j] += p.decodeOffset[j];
+                }
+            });
         }
-        return x;
+        return new Matrix(samples, features, decoded);
+    }
+
+    /**
+     * Returns the average as a flat array, as added by {@link #decode(Matrix)}.
+     * Callers must not modify the result.
+     */
+    double[] decodeOffset() {
+        return projection().decodeOffset;
+    }
+
+    /**
+     * Returns the projection offsets and fingerprint of the current {@link #v} and {@link #avg},
+     * recomputing them if either field or the eigenvalues were replaced since the last fit or load.
+     * Changes made inside the matrices are not seen; see {@link #v}.
+     */
+    private Projection projection() {
+        Projection p = projection;
+        if (p == null || p.v != v || p.avg != avg || p.eigenvalues != eigenvalues) {
+            p = new Projection(v, avg, eigenvalues);
+            projection = p;
+        }
+        return p;
     }
 
     /**
@@ -195,31 +878,261 @@ public class PCA implements Serializable {
     }
 
     /**
-     * Saves the current {@code PCA} object to a file using serialization.
+     * Returns the variance of the training data along each principal component, in the order of the
+     * columns of {@link #v}.
+     *
+     * @return a copy of the component variances, or {@code null} if unknown, e.g. for a model loaded
+     *         from a legacy serialized file
+     */
+    public double[] getEigenvalues() {
+        return eigenvalues == null ? null : eigenvalues.clone();
+    }
+
+    /**
+     * Returns a 64-bit fingerprint of the model (FNV-1a over the dimensions, mean, components and
+     * eigenvalues). Encoded images record it so that they are only decoded with the model that
+     * produced them.
+     * <p>
+     * The components are hashed at float32 precision, the narrowest type
+     * {@link #saveToFile(String, BinaryDataset.DataType)} stores them in, so a model keeps its
+     * fingerprint when saved and loaded in either precision. The fingerprint is computed once per fit
+     * or load, together with the projection offsets.
+     * </p>
+     *
+     * @return the model fingerprint
+     */
+    public long getModelId() {
+        return v == null ? fingerprint(null, avg, eigenvalues) : projection().modelId;
+    }
+
+    private static long fingerprint(Matrix v, Matrix avg, double[] eigenvalues) {
+        int features = avg.getWidth();
+        int k = v == null ? 0 : v.getWidth();
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, features);
+        hash = fnv(hash, k);
+        for (int j = 0; j < features; j++) {
+            hash = fnv(hash, Double.doubleToLongBits(avg.get(0, j)));
+        }
+        for (int c = 0; c < k; c++) {
+            for (int j = 0; j < features; j++) {
+                hash = fnv(hash, Float.floatToIntBits((float) v.get(j, c)));
+            }
+        }
+        if (eigenvalues != null) {
+            for (double value : eigenvalues) {
+                hash = fnv(hash, Double.doubleToLongBits(value));
+            }
+        }
+        return hash;
+    }
+
+    private static long fnv(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * 0x100000001b3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    /**
+     * Saves the model to a file in the binary model format with float64 components.
      *
      * @param filename the path to the file where the PCA model will be saved
      * @throws IOException if an I/O error occurs during writing to the file
+     * @see #saveToFile(String, BinaryDataset.DataType)
      */
     public void saveToFile(String filename) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeObject(this);
-            System.out.println("PCA saved to file: " + filename);
+        saveToFile(filename, BinaryDataset.DataType.FLOAT64);
+    }
+
+    /**
+     * Saves the model to a file in the binary model format.
+     * <p>
+     * The file starts with a {@value #MODEL_HEADER_BYTES}-byte little-endian header: the magic
+     * {@code "PCMD"}, the format version, the feature count, the component count, the bytes per
+     * component value (4 or 8), a flag word (bit 0: eigenvalues stored, bit 1: incremental state
+     * stored) and the number of samples seen by {@link #partialFit(Matrix, int)}. It is followed by
+     * the mean as float64, the optional eigenvalues and singular values as float64, and finally the
+     * components, one contiguous row of {@code features} values per component. Only the components
+     * use the requested {@code type}; float32 halves the file size.
+     * </p>
+     * <p>
+     * Batches added by {@link #partialFit(Matrix, int)} since the last {@link #finish()} are not
+     * saved; the file holds the published model and the incremental state that matches it.
+     * </p>
+     *
+     * @param filename the path to the file where the PCA model will be saved
+     * @param type     the storage type of the component values
+     * @throws IOException if an I/O error occurs during writing to the file
+     */
+    public void saveToFile(String filename, BinaryDataset.DataType type) throws IOException {
+        int features = avg.getWidth();
+        int k = v == null ? 0 : v.getWidth();
+        boolean incremental = samplesSeen > 0 && singularValues != null && singularValues.length == k;
+        int flags = (eigenvalues != null && eigenvalues.length == k ? MODEL_FLAG_EIGENVALUES : 0)
+                | (incremental ? MODEL_FLAG_INCREMENTAL : 0);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1 << 20, features * 8))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MODEL_MAGIC).putInt(MODEL_VERSION).putInt(features).putInt(k)
+                    .putInt(type.getBytes()).putInt(flags).putLong(samplesSeen);
+            writeValues(channel, buffer, avg.toRowMajorArray(), BinaryDataset.DataType.FLOAT64);
+            if ((flags & MODEL_FLAG_EIGENVALUES) != 0) {
+                writeValues(channel, buffer, eigenvalues, BinaryDataset.DataType.FLOAT64);
+            }
+            if (incremental) {
+                writeValues(channel, buffer, singularValues, BinaryDataset.DataType.FLOAT64);
+            }
+            if (k > 0) {
+                writeValues(channel, buffer, v.transpose().toRowMajorArray(), type);
+            }
+            flush(channel, buffer);
         }
+        System.out.println("PCA saved to file: " + filename);
+    }
+
+    /**
+     * Appends {@code values} to the buffer, flushing it to the channel whenever it fills.
+     */
+    private static void writeValues(FileChannel channel, ByteBuffer buffer, double[] values,
+                                    BinaryDataset.DataType type) throws IOException {
+        for (double value : values) {
+            if (buffer.remaining() < 8) {
+                flush(channel, buffer);
+            }
+            if (type == BinaryDataset.DataType.FLOAT64) {
+                buffer.putDouble(value);
+            } else {
+                buffer.putFloat((float) value);
+            }
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
     }
 
     /**
      * Loads a {@code PCA} object from a file.
+     * <p>
+     * Files in the binary model format written by {@link #saveToFile(String)} are memory-mapped and
+     * copied straight into the component matrix; {@link #v} is then a transposed view of the stored
+     * component rows. Files written by earlier versions with Java serialization are recognized by
+     * their missing magic number and still imported.
+     * </p>
      *
      * @param filename the path to the file from which to load the PCA model
      * @return the {@code PCA} object loaded from the file
-     * @throws IOException            if an I/O error occurs during reading from the file
-     * @throws ClassNotFoundException if the class of the serialized object cannot be found
+     * @throws IOException            if an I/O error occurs during reading from the file, or the file is corrupt
+     * @throws ClassNotFoundException if the class of a legacy serialized object cannot be found
      */
     public static PCA loadFromFile(String filename) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
-            PCA pca = (PCA) ois.readObject();
-            System.out.println("PCA loaded from file: " + filename);
-            return pca;
+        PCA pca;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(MODEL_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            pca = header.position() >= 4 && header.getInt(0) == MODEL_MAGIC ? loadBinary(channel, header, filename) : null;
+        }
+        if (pca == null) {
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+                pca = (PCA) ois.readObject();
+            }
+        }
+        if (pca.v != null && pca.avg != null) {
+            pca.projection = new Projection(pca.v, pca.avg, pca.eigenvalues);
+        }
+        System.out.println("PCA loaded from file: " + filename);
+        return pca;
+    }
+
+    /**
+     * Reads a model in the binary format from an open channel whose header has been read.
+     */
+    private static PCA loadBinary(FileChannel channel, ByteBuffer header, String filename) throws IOException {
+        if (header.hasRemaining()) {
+            throw new IOException("Truncated PCA model: " + filename);
+        }
+        if (header.getInt(4) != MODEL_VERSION) {
+            throw new IOException("Unsupported PCA model version " + header.getInt(4) + ": " + filename);
+        }
+        int features = header.getInt(8);
+        int k = header.getInt(12);
+        BinaryDataset.DataType type = header.getInt(16) == 4 ? BinaryDataset.DataType.FLOAT32
+                : header.getInt(16) == 8 ? BinaryDataset.DataType.FLOAT64 : null;
+        int flags = header.getInt(20);
+        long samples = header.getLong(24);
+        if (type == null || features < 0 || k < 0 || samples < 0) {
+            throw new IOException("Corrupt PCA model header: " + filename);
+        }
+        boolean hasEigenvalues = (flags & MODEL_FLAG_EIGENVALUES) != 0;
+        boolean incremental = (flags & MODEL_FLAG_INCREMENTAL) != 0;
+        long vectorBytes = 8L * (features + (hasEigenvalues ? k : 0) + (incremental ? k : 0));
+        long componentBytes = (long) k * features * type.getBytes();
+        if (channel.size() < MODEL_HEADER_BYTES + vectorBytes + componentBytes) {
+            throw new IOException("Truncated PCA model: " + filename);
+        }
+
+        PCA pca = new PCA(features);
+        DoubleBuffer vectors = channel.map(FileChannel.MapMode.READ_ONLY, MODEL_HEADER_BYTES, vectorBytes)
+                .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        double[] mean = new double[features];
+        vectors.get(mean);
+        pca.avg = new Matrix(1, features, mean);
+        if (hasEigenvalues) {
+            pca.eigenvalues = new double[k];
+            vectors.get(pca.eigenvalues);
+        }
+        if (incremental) {
+            pca.singularValues = new double[k];
+            vectors.get(pca.singularValues);
+            pca.samplesSeen = samples;
+        }
+        if (k > 0) {
+            double[] data = new double[Math.multiplyExact(k, features)];
+            long rowBytes = (long) features * type.getBytes();
+            int rowsPerMap = (int) Math.max(1, Math.min(k, Integer.MAX_VALUE / Math.max(1, rowBytes)));
+            long position = MODEL_HEADER_BYTES + vectorBytes;
+            for (int done = 0; done < k; done += rowsPerMap) {
+                int n = Math.min(rowsPerMap, k - done);
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position + done * rowBytes, n * rowBytes);
+                BinaryDataset.copyRows(mapped, type, data, done * features, n, features);
+            }
+            pca.v = new Matrix(k, features, data).transpose();
+        }
+        return pca;
+    }
+
+    /**
+     * The mean folded into the linear maps of one model: encoding computes {@code x v + encodeOffset}
+     * with {@code encodeOffset = -avg v}, and decoding {@code c v^T + decodeOffset} with
+     * {@code decodeOffset = avg}. Also holds the model's {@link #getModelId() fingerprint}.
+     */
+    private static final class Projection {
+        final Matrix v;
+        final Matrix avg;
+        final double[] eigenvalues;
+        final double[] encodeOffset;
+        final double[] decodeOffset;
+        final long modelId;
+
+        Projection(Matrix v, Matrix avg, double[] eigenvalues) {
+            this.v = v;
+            this.avg = avg;
+            this.eigenvalues = eigenvalues;
+            this.modelId = fingerprint(v, avg, eigenvalues);
+            this.decodeOffset = avg.toRowMajorArray();
+            this.encodeOffset = v.transposeDot(decodeOffset);
+            for (int j = 0; j < encodeOffset.length; j++) {
+                encodeOffset[j] = -encodeOffset[j];
+            }
         }
     }
 }
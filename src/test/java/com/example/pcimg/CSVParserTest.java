@@ -0,0 +1,74 @@
+package com.example.pcimg;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that {@link CSVParser} reads numbers exactly as {@link Double#parseDouble(String)} does.
+ */
+class CSVParserTest {
+
+    @TempDir
+    Path dir;
+
+    private Matrix parse(String content, boolean skipHeader, boolean skipFirstColumn) throws IOException {
+        Path file = dir.resolve("data.csv");
+        Files.writeString(file, content);
+        return CSVParser.parse(file.toString(), skipHeader, skipFirstColumn);
+    }
+
+    private void assertParsedLikeJava(List<String> fields) throws IOException {
+        Matrix parsed = parse(String.join(",", fields) + "\n", false, false);
+        assertEquals(fields.size(), parsed.getWidth());
+        for (int j = 0; j < fields.size(); j++) {
+            double expected = Double.parseDouble(fields.get(j));
+            assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(parsed.get(0, j)),
+                    "field \"" + fields.get(j) + "\"");
+        }
+    }
+
+    @Test
+    void signedZerosKeepTheirSign() throws IOException {
+        assertParsedLikeJava(List.of("-0", "-0.0", "-0e5", "-.0", "-00.000", "0", "+0", "0.0", "0e-3"));
+    }
+
+    @Test
+    void fastAndSlowPathsMatchParseDouble() throws IOException {
+        List<String> fields = new ArrayList<>(List.of("1", "-1.5", "3.14159", "1e22", "1e23", "-2.5E-7",
+                "123456789012345678", "1234567890123456789", "0.1", "9007199254740993", "1e-400", "4.9e-324",
+                "1.7976931348623157e308", " 42 ", "7.", ".5"));
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+            fields.add(i % 2 == 0 ? Double.toString(value) : String.format(Locale.ROOT, "%.6f", value));
+        }
+        assertParsedLikeJava(fields);
+    }
+
+    @Test
+    void headerLabelsAndLineEndingsAreHandled() throws IOException {
+        Matrix parsed = parse("label,a,b\r\nx,1,2\r\n\r\ny,3,4\n", true, true);
+
+        assertEquals(2, parsed.getHeight());
+        assertEquals(2, parsed.getWidth());
+        assertEquals(1, parsed.get(0, 0));
+        assertEquals(4, parsed.get(1, 1));
+    }
+
+    @Test
+    void malformedRowsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> parse("1,2\n3\n", false, false));
+        assertThrows(IllegalArgumentException.class, () -> parse("1,2\n3,x\n", false, false));
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.pcimg;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of {@link CoefficientCoder} and its handling of damaged streams.
+ */
+class CoefficientCoderTest {
+
+    private static short[] roundTrip(short[] values, int rows, int cols) throws IOException {
+        byte[] coded = CoefficientCoder.encode(values, rows, cols);
+        ByteBuffer in = ByteBuffer.wrap(coded);
+        short[] decoded = new short[values.length];
+        CoefficientCoder.decode(in, decoded, rows, cols);
+        assertEquals(coded.length, in.position(), "decoder must consume the whole stream");
+        return decoded;
+    }
+
+    @Test
+    void randomValuesRoundTrip() throws IOException {
+        Random random = new Random(1);
+        int rows = 300;
+        int cols = 37;
+        short[] values = new short[rows * cols];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (short) random.nextInt(1 << 16);
+        }
+        assertArrayEquals(values, roundTrip(values, rows, cols));
+    }
+
+    @Test
+    void decayingValuesRoundTripAndCompress() throws IOException {
+        Random random = new Random(2);
+        int rows = 500;
+        int cols = 64;
+        short[] values = new short[rows * cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                values[r * cols + c] = (short) Math.rint(random.nextGaussian() * 2000 / (c + 1));
+            }
+        }
+        assertArrayEquals(values, roundTrip(values, rows, cols));
+        assertTrue(CoefficientCoder.encode(values, rows, cols).length < 2 * values.length, "smaller than int16");
+    }
+
+    @Test
+    void extremeValuesRoundTrip() throws IOException {
+        short[] values = new short[4096];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (short) (i % 3 == 0 ? 32767 : i % 3 == 1 ? -32767 : Short.MIN_VALUE);
+        }
+        assertArrayEquals(values, roundTrip(values, 64, 64));
+    }
+
+    @Test
+    void constantAndEmptyInputsRoundTrip() throws IOException {
+        short[] zeros = new short[10000];
+        assertArrayEquals(zeros, roundTrip(zeros, 100, 100));
+        assertArrayEquals(new short[0], roundTrip(new short[0], 0, 16));
+    }
+
+    @Test
+    void longRunsOfCarriesRoundTrip() throws IOException {
+        // Skewed data keeps the range narrow for long stretches, which exercises carry propagation.
+        short[] values = new short[200000];
+        Random random = new Random(3);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (short) (random.nextInt(1000) == 0 ? random.nextInt(1 << 16) : 0);
+        }
+        assertArrayEquals(values, roundTrip(values, 2000, 100));
+    }
+
+    @Test
+    void everyTruncationIsRejected() {
+        Random random = new Random(4);
+        short[] values = new short[40 * 16];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (short) Math.rint(random.nextGaussian() * 300);
+        }
+        byte[] coded = CoefficientCoder.encode(values, 40, 16);
+        for (int length = 0; length < coded.length; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(coded, length));
+            assertThrows(IOException.class,
+                    () -> CoefficientCoder.decode(truncated, new short[values.length], 40, 16),
+                    "length " + length);
+        }
+    }
+
+    @Test
+    void corruptStreamsFailOnlyWithIOException() {
+        Random random = new Random(5);
+        short[] values = new short[40 * 16];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (short) Math.rint(random.nextGaussian() * 300);
+        }
+        byte[] coded = CoefficientCoder.encode(values, 40, 16);
+        for (int trial = 0; trial < 2000; trial++) {
+            byte[] corrupt = coded.clone();
+            corrupt[4 + random.nextInt(corrupt.length - 4)] ^= (byte) (1 + random.nextInt(255));
+            try {
+                CoefficientCoder.decode(ByteBuffer.wrap(corrupt), new short[values.length], 40, 16);
+            } catch (IOException expected) {
+                // a damaged stream may also decode to wrong values; it must never fail otherwise
+            }
+        }
+    }
+
+    @Test
+    void corruptLengthIsRejected() {
+        byte[] coded = CoefficientCoder.encode(new short[64], 8, 8);
+        byte[] tooLong = coded.clone();
+        tooLong[3] = 0x7f;
+        byte[] tooShort = coded.clone();
+        tooShort[0] = 1;
+        tooShort[1] = tooShort[2] = tooShort[3] = 0;
+
+        assertThrows(IOException.class, () -> CoefficientCoder.decode(ByteBuffer.wrap(tooLong), new short[64], 8, 8));
+        assertThrows(IOException.class, () -> CoefficientCoder.decode(ByteBuffer.wrap(tooShort), new short[64], 8, 8));
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.pcimg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static com.example.pcimg.TestData.assertMatrixEquals;
+import static com.example.pcimg.TestData.assertSameComponents;
+
+/**
+ * Checks {@link CovarianceAccumulator} against the mean and co-moment computed directly, and that
+ * merged partial accumulators agree with a single pass.
+ */
+class CovarianceAccumulatorTest {
+
+    private static final int FEATURES = 24;
+
+    /** The statistics of {@code x} computed directly: the mean, and {@code syrk} of the centered rows. */
+    private static Matrix[] direct(Matrix x) {
+        int rows = x.getHeight();
+        Matrix mean = Matrix.zeros(1, FEATURES);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < FEATURES; j++) {
+                mean.set(0, j, mean.get(0, j) + x.get(i, j) / rows);
+            }
+        }
+        Matrix centered = x.clone();
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < FEATURES; j++) {
+                centered.set(i, j, x.get(i, j) - mean.get(0, j));
+            }
+        }
+        return new Matrix[]{mean, centered.syrk()};
+    }
+
+    private static void assertSameStatistics(Matrix[] expected, CovarianceAccumulator actual, long count) {
+        assertEquals(count, actual.getCount());
+        assertMatrixEquals(expected[0], actual.getMean(), 1e-10);
+        assertMatrixEquals(expected[1], actual.getCoMoment(), 1e-8);
+    }
+
+    private static List<Matrix> split(Matrix x, int... heights) {
+        List<Matrix> blocks = new ArrayList<>();
+        int row = 0;
+        for (int height : heights) {
+            blocks.add(x.getSubMatrix(row, height, 0, FEATURES));
+            row += height;
+        }
+        assertEquals(x.getHeight(), row);
+        return blocks;
+    }
+
+    @Test
+    void singlePassMatchesDirectStatistics() {
+        Matrix x = TestData.samples(1000, FEATURES, 51);
+        CovarianceAccumulator byMatrix = new CovarianceAccumulator(FEATURES, 64);
+        byMatrix.add(x);
+        CovarianceAccumulator byRow = new CovarianceAccumulator(FEATURES, 7);
+        for (int i = 0; i < x.getHeight(); i++) {
+            byRow.add(x.getR(i).toRowMajorArray());
+        }
+
+        assertSameStatistics(direct(x), byMatrix, 1000);
+        assertSameStatistics(direct(x), byRow, 1000);
+    }
+
+    @Test
+    void mergedPartialsMatchTheSinglePass() {
+        Matrix x = TestData.samples(900, FEATURES, 52);
+        List<Matrix> blocks = split(x, 1, 300, 0, 257, 42, 300);
+        CovarianceAccumulator merged = new CovarianceAccumulator(FEATURES);
+        for (Matrix block : blocks) {
+            CovarianceAccumulator partial = new CovarianceAccumulator(FEATURES, 100);
+            partial.add(block);
+            merged.merge(partial);
+        }
+        merged.merge(new CovarianceAccumulator(FEATURES));
+
+        assertSameStatistics(direct(x), merged, 900);
+    }
+
+    @Test
+    void parallelPartialsMatchTheSinglePass() {
+        Matrix x = TestData.samples(1200, FEATURES, 53);
+        List<Matrix> blocks = split(x, 100, 200, 300, 50, 50, 250, 250);
+        for (int count : new int[]{1, 2, 3, 5, 16}) {
+            CovarianceAccumulator[] partials = new CovarianceAccumulator[count];
+            for (int i = 0; i < count; i++) {
+                partials[i] = new CovarianceAccumulator(FEATURES);
+            }
+            CovarianceAccumulator.addAll(partials, blocks);
+
+            assertSameStatistics(direct(x), CovarianceAccumulator.mergeAll(partials), 1200);
+        }
+        CovarianceAccumulator[] defaults = CovarianceAccumulator.partials(FEATURES);
+        CovarianceAccumulator.addAll(defaults, blocks);
+        assertSameStatistics(direct(x), CovarianceAccumulator.mergeAll(defaults), 1200);
+    }
+
+    @Test
+    void fitFromStatisticsMatchesTheFullFit() throws Exception {
+        Matrix x = TestData.samples(400, FEATURES, 54);
+        CovarianceAccumulator stats = new CovarianceAccumulator(FEATURES);
+        stats.add(x);
+        // 2 components go through Lanczos, 12 through the full decomposition.
+        for (int k : new int[]{2, 12}) {
+            PCA expected = new PCA(FEATURES);
+            expected.fit(x, k, Matrix.EigenMethod.TRIDIAGONAL_QL);
+            PCA streamed = new PCA(FEATURES);
+            streamed.fit(stats, k);
+
+            // The batch fit scales its mean by a float reciprocal, good to about 1e-8 relative.
+            assertMatrixEquals(expected.avg, streamed.avg, 1e-5);
+            assertSameComponents(expected.v.getSubMatrix(0, FEATURES, 0, 2), streamed.v.getSubMatrix(0, FEATURES, 0, 2), 1e-8);
+            assertArrayEquals(expected.getEigenvalues(), streamed.getEigenvalues(), 1e-8 * expected.getEigenvalues()[0]);
+        }
+    }
+
+    @Test
+    void mismatchedWidthsAreRejected() {
+        CovarianceAccumulator stats = new CovarianceAccumulator(FEATURES);
+        assertThrows(IllegalArgumentException.class, () -> stats.merge(new CovarianceAccumulator(FEATURES + 1)));
+        assertThrows(IllegalArgumentException.class, () -> stats.add(new double[FEATURES - 1]));
+        assertThrows(IllegalArgumentException.class, () -> stats.add(Matrix.zeros(2, FEATURES + 1)));
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.pcimg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static com.example.pcimg.TestData.assertEigenPairs;
+import static com.example.pcimg.TestData.assertSameComponents;
+
+/**
+ * Checks the symmetric eigen decompositions behind {@link Matrix#eigen(Matrix, Matrix.EigenMethod)}.
+ */
+class EigenDecompositionTest {
+
+    private static double[] diagonal(Matrix d) {
+        double[] values = new double[d.getHeight()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = d.get(i, i);
+        }
+        return values;
+    }
+
+    /** Returns {@code Q diag(values) Q^T} for a random orthogonal {@code Q}. */
+    private static Matrix withSpectrum(double[] values, long seed) {
+        int n = values.length;
+        Matrix q = Matrix.qr(TestData.randomSymmetric(n, seed)).getFirst();
+        Matrix d = Matrix.zeros(n, n);
+        for (int i = 0; i < n; i++) {
+            d.set(i, i, values[i]);
+        }
+        return q.dot(d).dot(q.transpose());
+    }
+
+    @Test
+    void tql2DecomposesRandomMatricesInAscendingOrder() {
+        for (int n : new int[]{1, 2, 3, 10, 60, 150}) {
+            Matrix a = TestData.randomSymmetric(n, n);
+            Matrix.Pair pair = EigenCalculator.calculateEigen(a);
+
+            assertEigenPairs(a, pair, 1e-12);
+            double[] values = diagonal(pair.getFirst());
+            double trace = 0;
+            for (int i = 0; i < n; i++) {
+                trace += a.get(i, i);
+                if (i > 0) {
+                    assertTrue(values[i - 1] <= values[i], "ascending at " + i + " for n = " + n);
+                }
+            }
+            assertEquals(trace, Arrays.stream(values).sum(), 1e-10 * n);
+        }
+    }
+
+    @Test
+    void tql2RecoversKnownSpectrumWithRepeatedValues() {
+        double[] spectrum = {5, -1, 2, 2, 0, 2, 7.5, -1, 1e-9, 3};
+        Matrix a = withSpectrum(spectrum, 11);
+        Matrix.Pair pair = EigenCalculator.calculateEigen(a);
+
+        double[] sorted = spectrum.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(sorted, diagonal(pair.getFirst()), 1e-12);
+        assertEigenPairs(a, pair, 1e-12);
+    }
+
+    @Test
+    void tql2SortsDiagonalAndZeroMatrices() {
+        Matrix diagonal = Matrix.zeros(4, 4);
+        double[] values = {3, -2, 0, 1};
+        for (int i = 0; i < 4; i++) {
+            diagonal.set(i, i, values[i]);
+        }
+        Matrix.Pair pair = EigenCalculator.calculateEigen(diagonal);
+        assertArrayEquals(new double[]{-2, 0, 1, 3}, diagonal(pair.getFirst()));
+        assertEigenPairs(diagonal, pair, 0);
+
+        Matrix zero = Matrix.zeros(5, 5);
+        assertEigenPairs(zero, EigenCalculator.calculateEigen(zero), 0);
+    }
+
+    @Test
+    void jacobiConvergesToTheTql2Spectrum() throws Exception {
+        for (int n : new int[]{1, 2, 7, 40, 101}) {
+            Matrix a = TestData.randomSymmetric(n, 100 + n);
+            Matrix.Pair jacobi = Matrix.eigen(a, Matrix.EigenMethod.JACOBI);
+
+            assertEigenPairs(a, jacobi, 1e-12);
+            double[] values = diagonal(jacobi.getFirst());
+            Arrays.sort(values);
+            assertArrayEquals(diagonal(Matrix.eigen(a).getFirst()), values, 1e-10 * n);
+            // Converged: the rotated matrix V^T A V is diagonal to working precision.
+            Matrix rotated = jacobi.getSecond().transpose().dot(a).dot(jacobi.getSecond());
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    if (i != j) {
+                        assertEquals(0, rotated.get(i, j), 1e-12 * Math.max(1, a.norm()), "element " + i + "," + j);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void jacobiRecoversKnownSpectrumWithRepeatedValues() throws Exception {
+        double[] spectrum = {4, 4, 4, -3, 0, 0, 9, 1};
+        Matrix a = withSpectrum(spectrum, 12);
+        Matrix.Pair jacobi = Matrix.eigen(a, Matrix.EigenMethod.JACOBI);
+
+        double[] values = diagonal(jacobi.getFirst());
+        Arrays.sort(values);
+        double[] sorted = spectrum.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(sorted, values, 1e-12);
+        assertEigenPairs(a, jacobi, 1e-12);
+    }
+
+    @Test
+    void jacobiFitMatchesTheTql2Fit() throws Exception {
+        Matrix x = TestData.samples(120, 30, 13);
+        PCA tql2 = new PCA(30);
+        tql2.fit(x, 6, Matrix.EigenMethod.TRIDIAGONAL_QL);
+        PCA jacobi = new PCA(30);
+        jacobi.fit(x, 6, Matrix.EigenMethod.JACOBI);
+
+        assertSameComponents(tql2.v, jacobi.v, 1e-8);
+        assertArrayEquals(tql2.getEigenvalues(), jacobi.getEigenvalues(), 1e-9);
+    }
+
+    @Test
+    void nonSquareMatrixIsRejected() {
+        assertThrows(ArithmeticException.class, () -> EigenCalculator.calculateEigen(Matrix.zeros(3, 4)));
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.pcimg;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of {@link EncodedArchive} files, including appends and damaged indexes.
+ */
+class EncodedArchiveTest {
+
+    private static final int FEATURES = 24;
+    private static final int COMPONENTS = 16;
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(7);
+    private final PCA model = model();
+
+    private static PCA model() {
+        Random random = new Random(1);
+        PCA pca = new PCA(FEATURES);
+        pca.v = new Matrix(FEATURES, COMPONENTS);
+        for (int i = 0; i < FEATURES; i++) {
+            for (int c = 0; c < COMPONENTS; c++) {
+                pca.v.set(i, c, random.nextGaussian());
+            }
+        }
+        return pca;
+    }
+
+    private EncodedImage image(int rows, boolean entropyCoded) {
+        Matrix coefficients = new Matrix(rows, COMPONENTS);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < COMPONENTS; c++) {
+                coefficients.set(r, c, random.nextGaussian() * 100 / (c + 1));
+            }
+        }
+        EncodedImage image = EncodedImage.quantize(coefficients, 4, 2 * rows, model, EncodedImage.Quantization.INT16);
+        return entropyCoded ? image.entropyCoded() : image;
+    }
+
+    private static byte[] bytes(EncodedImage image) {
+        ByteBuffer buffer = ByteBuffer.allocate(image.getEncodedSize());
+        image.writeTo(buffer);
+        return buffer.array();
+    }
+
+    private static void assertContains(EncodedArchive.Reader reader, List<EncodedImage> expected) throws IOException {
+        assertEquals(expected.size(), reader.size());
+        for (int id = 0; id < expected.size(); id++) {
+            assertArrayEquals(bytes(expected.get(id)), bytes(reader.get(id)), "image " + id);
+            assertEquals(expected.get(id).getEncodedSize(), reader.bytes(id).remaining(), "image " + id);
+        }
+    }
+
+    private String file(String name) {
+        return dir.resolve(name).toString();
+    }
+
+    private List<EncodedImage> write(String filename, int count) throws IOException {
+        List<EncodedImage> images = new ArrayList<>();
+        try (EncodedArchive.Writer writer = EncodedArchive.create(filename, model.getModelId())) {
+            for (int i = 0; i < count; i++) {
+                EncodedImage image = image(1 + i % 5, i % 2 == 0);
+                assertEquals(i, writer.add(image));
+                images.add(image);
+            }
+        }
+        return images;
+    }
+
+    @Test
+    void writtenImagesAreReadBack() throws IOException {
+        List<EncodedImage> images = write(file("a.pcea"), 50);
+        EncodedArchive.Reader reader = EncodedArchive.open(file("a.pcea"));
+
+        assertEquals(model.getModelId(), reader.getModelId());
+        assertContains(reader, images);
+        List<Integer> scanned = new ArrayList<>();
+        reader.scan(10, 20, (id, image) -> {
+            assertArrayEquals(bytes(images.get(id)), bytes(image));
+            scanned.add(id);
+        });
+        assertEquals(10, scanned.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> reader.get(50));
+    }
+
+    @Test
+    void emptyArchiveIsReadable() throws IOException {
+        write(file("empty.pcea"), 0);
+
+        assertEquals(0, EncodedArchive.open(file("empty.pcea")).size());
+    }
+
+    @Test
+    void appendKeepsExistingImages() throws IOException {
+        List<EncodedImage> images = write(file("a.pcea"), 20);
+        try (EncodedArchive.Writer writer = EncodedArchive.append(file("a.pcea"))) {
+            assertEquals(20, writer.size());
+            for (int i = 0; i < 30; i++) {
+                EncodedImage image = image(3, i % 3 == 0);
+                assertEquals(20 + i, writer.add(image));
+                images.add(image);
+            }
+        }
+
+        assertContains(EncodedArchive.open(file("a.pcea")), images);
+    }
+
+    @Test
+    void unfinishedAppendLeavesArchiveIntact() throws IOException {
+        List<EncodedImage> images = write(file("a.pcea"), 20);
+        // Enough data to flush the write buffer several times, but the writer is never closed, as
+        // after a crash.
+        EncodedArchive.Writer abandoned = EncodedArchive.append(file("a.pcea"));
+        for (int i = 0; i < 5; i++) {
+            abandoned.add(image(20000, false));
+        }
+
+        assertContains(EncodedArchive.open(file("a.pcea")), images);
+
+        // A later append reuses the space of the abandoned one.
+        EncodedImage last = image(2, true);
+        try (EncodedArchive.Writer writer = EncodedArchive.append(file("a.pcea"))) {
+            writer.add(last);
+        }
+        images.add(last);
+        assertContains(EncodedArchive.open(file("a.pcea")), images);
+    }
+
+    @Test
+    void compactionReclaimsReplacedIndexes() throws IOException {
+        List<EncodedImage> images = write(file("a.pcea"), 10);
+        assertEquals(0, EncodedArchive.open(file("a.pcea")).getUnusedBytes());
+        for (int append = 0; append < 20; append++) {
+            try (EncodedArchive.Writer writer = EncodedArchive.append(file("a.pcea"))) {
+                EncodedImage image = image(1, append % 2 == 0);
+                writer.add(image);
+                images.add(image);
+            }
+        }
+        // Each append replaced an index of 12 bytes per image: 10, 11, ..., 29 images.
+        long replacedIndexes = 12L * (10 + 29) * 20 / 2;
+        assertEquals(replacedIndexes, EncodedArchive.open(file("a.pcea")).getUnusedBytes());
+
+        EncodedArchive.Writer abandoned = EncodedArchive.append(file("a.pcea"));
+        for (int i = 0; i < 3; i++) {
+            abandoned.add(image(20000, false));
+        }
+        long size = Files.size(dir.resolve("a.pcea"));
+        EncodedArchive.Reader before = EncodedArchive.open(file("a.pcea"));
+        assertTrue(before.getUnusedBytes() > replacedIndexes, "abandoned data is unused");
+
+        assertEquals(before.getUnusedBytes(), EncodedArchive.compact(file("a.pcea")));
+        EncodedArchive.Reader after = EncodedArchive.open(file("a.pcea"));
+        assertEquals(0, after.getUnusedBytes());
+        assertEquals(size - before.getUnusedBytes(), Files.size(dir.resolve("a.pcea")));
+        assertEquals(model.getModelId(), after.getModelId());
+        assertContains(after, images);
+    }
+
+    @Test
+    void imagesLargerThanTheWriteBufferRoundTrip() throws IOException {
+        List<EncodedImage> images = new ArrayList<>();
+        images.add(image(2, false));
+        images.add(image(40000, false));
+        images.add(image(3, true));
+        images.add(image(50000, false));
+        try (EncodedArchive.Writer writer = EncodedArchive.create(file("large.pcea"), model.getModelId())) {
+            for (EncodedImage image : images) {
+                writer.add(image);
+            }
+        }
+
+        assertTrue(images.get(1).getEncodedSize() > 1 << 20);
+        assertContains(EncodedArchive.open(file("large.pcea")), images);
+    }
+
+    @Test
+    void imageOfAnotherModelIsRejected() throws IOException {
+        try (EncodedArchive.Writer writer = EncodedArchive.create(file("a.pcea"), model.getModelId() + 1)) {
+            assertThrows(IllegalArgumentException.class, () -> writer.add(image(1, false)));
+        }
+    }
+
+    @Test
+    void corruptIndexIsRejected() throws IOException {
+        write(file("a.pcea"), 10);
+        long indexOffset;
+        try (RandomAccessFile raf = new RandomAccessFile(file("a.pcea"), "rw")) {
+            raf.seek(24);
+            indexOffset = Long.reverseBytes(raf.readLong());
+            // Make the last image overlap the index.
+            raf.seek(indexOffset + 8 * 10 + 4 * 9);
+            raf.writeInt(Integer.reverseBytes(1 << 20));
+        }
+        assertThrows(IOException.class, () -> EncodedArchive.open(file("a.pcea")));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file("a.pcea"), "rw")) {
+            raf.seek(24);
+            raf.writeLong(Long.reverseBytes(indexOffset + 1000));
+        }
+        assertThrows(IOException.class, () -> EncodedArchive.open(file("a.pcea")));
+        assertThrows(IOException.class, () -> EncodedArchive.append(file("a.pcea")));
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file("junk.pcea"), "rw")) {
+            raf.write(new byte[64]);
+        }
+
+        assertThrows(IOException.class, () -> EncodedArchive.open(file("junk.pcea")));
+    }
+}
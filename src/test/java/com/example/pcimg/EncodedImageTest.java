@@ -0,0 +1,104 @@
+package com.example.pcimg;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static com.example.pcimg.TestData.assertMatrixEquals;
+
+/**
+ * Round trips of {@link EncodedImage} through its byte form, with and without entropy coding.
+ */
+class EncodedImageTest {
+
+    private static final int FEATURES = 3 * 8 * 8;
+    private static final int COMPONENTS = 12;
+
+    private static Matrix samples(int rows, long seed) {
+        return TestData.samples(rows, FEATURES, seed);
+    }
+
+    /** A fitted model, whose eigenvalues let the quantization parameters be derived. */
+    private static PCA fitted() {
+        return TestData.fitted(FEATURES, COMPONENTS);
+    }
+
+    /** A model without eigenvalues, for which the parameters are stored in the image. */
+    private static PCA withoutEigenvalues() {
+        PCA pca = new PCA(FEATURES);
+        pca.v = fitted().v.clone();
+        return pca;
+    }
+
+    private static EncodedImage reread(EncodedImage image) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(image.getEncodedSize());
+        image.writeTo(buffer);
+        assertEquals(image.getEncodedSize(), buffer.position());
+        buffer.flip();
+        EncodedImage read = EncodedImage.readFrom(buffer);
+        assertFalse(buffer.hasRemaining());
+        return read;
+    }
+
+    @Test
+    void entropyCodedImageDequantizesLikeThePlainOne() throws IOException {
+        for (PCA model : new PCA[]{fitted(), withoutEigenvalues()}) {
+            Matrix coefficients = model.encode(samples(20, 2));
+            for (EncodedImage.Quantization quantization : EncodedImage.Quantization.values()) {
+                EncodedImage plain = EncodedImage.quantize(coefficients, 8, 8, model, quantization);
+                EncodedImage coded = plain.entropyCoded();
+                assertTrue(coded.isEntropyCoded());
+
+                EncodedImage read = reread(coded);
+                assertTrue(read.isEntropyCoded());
+                assertMatrixEquals(plain.dequantize(model), read.dequantize(model), 0);
+                assertMatrixEquals(plain.dequantize(model), reread(plain).dequantize(model), 0);
+            }
+        }
+    }
+
+    @Test
+    void quantizationErrorIsBoundedByTheStep() {
+        PCA model = fitted();
+        Matrix coefficients = model.encode(samples(5, 3));
+        Matrix restored = EncodedImage.quantize(coefficients, 8, 8, model, EncodedImage.Quantization.INT16)
+                .dequantize(model);
+        double[] variances = model.getEigenvalues();
+        for (int c = 0; c < COMPONENTS; c++) {
+            double step = EncodedImage.DEFAULT_CLIP_SIGMAS * Math.sqrt(variances[c]) / 32767;
+            for (int r = 0; r < 5; r++) {
+                double value = coefficients.get(r, c);
+                if (Math.abs(value) < EncodedImage.DEFAULT_CLIP_SIGMAS * Math.sqrt(variances[c])) {
+                    assertEquals(value, restored.get(r, c), step, "component " + c);
+                }
+            }
+        }
+    }
+
+    @Test
+    void otherModelIsRejected() {
+        PCA model = fitted();
+        EncodedImage image = EncodedImage.quantize(model.encode(samples(1, 4)), 8, 8, model,
+                EncodedImage.Quantization.INT8);
+
+        assertThrows(IllegalArgumentException.class, () -> image.dequantize(withoutEigenvalues()));
+    }
+
+    @Test
+    void truncatedImageIsRejected() {
+        PCA model = fitted();
+        EncodedImage image = EncodedImage.quantize(model.encode(samples(4, 5)), 8, 8, model,
+                EncodedImage.Quantization.INT8).entropyCoded();
+        ByteBuffer buffer = ByteBuffer.allocate(image.getEncodedSize());
+        image.writeTo(buffer);
+        byte[] bytes = Arrays.copyOf(buffer.array(), buffer.capacity() - 1);
+
+        assertThrows(IOException.class, () -> EncodedImage.readFrom(ByteBuffer.wrap(bytes)));
+    }
+}
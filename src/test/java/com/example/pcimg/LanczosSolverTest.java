@@ -0,0 +1,121 @@
+package com.example.pcimg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static com.example.pcimg.TestData.assertEigenPairs;
+import static com.example.pcimg.TestData.assertSameComponents;
+
+/**
+ * Compares the top-k eigenpairs of {@link LanczosSolver} with the full decomposition of {@link Matrix#eigen(Matrix)}.
+ */
+class LanczosSolverTest {
+
+    /** Returns the {@code k} largest eigenvalues of {@code a}, in descending order, and their vectors. */
+    private static Matrix.Pair largestOfFullDecomposition(Matrix a, int k) throws Exception {
+        Matrix.Pair full = Matrix.eigen(a);
+        int n = a.getHeight();
+        Matrix values = Matrix.zeros(k, k);
+        Matrix vectors = Matrix.zeros(n, k);
+        for (int i = 0; i < k; i++) {
+            values.set(i, i, full.getFirst().get(n - 1 - i, n - 1 - i));
+            vectors.setC(full.getSecond().getC(n - 1 - i), i);
+        }
+        return new Matrix.Pair(values, vectors);
+    }
+
+    private static double[] diagonal(Matrix d) {
+        double[] values = new double[d.getHeight()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = d.get(i, i);
+        }
+        return values;
+    }
+
+    @Test
+    void topKMatchesFullDecomposition() throws Exception {
+        Matrix a = TestData.randomSymmetric(120, 21);
+        for (int k : new int[]{1, 5, 12}) {
+            Matrix.Pair lanczos = LanczosSolver.largest(LanczosSolver.of(a), 120, k);
+            Matrix.Pair expected = largestOfFullDecomposition(a, k);
+
+            assertArrayEquals(diagonal(expected.getFirst()), diagonal(lanczos.getFirst()), 1e-9);
+            assertEigenPairs(a, lanczos, 1e-9);
+            assertSameComponents(expected.getSecond(), lanczos.getSecond(), 1e-7);
+        }
+    }
+
+    @Test
+    void gramOperatorMatchesTheCoMoment() throws Exception {
+        Matrix x = TestData.samples(90, 50, 22);
+        for (int j = 0; j < 50; j++) {
+            double mean = 0;
+            for (int i = 0; i < 90; i++) {
+                mean += x.get(i, j) / 90;
+            }
+            for (int i = 0; i < 90; i++) {
+                x.set(i, j, x.get(i, j) - mean);
+            }
+        }
+        Matrix coMoment = x.syrk();
+        Matrix.Pair lanczos = LanczosSolver.largest(LanczosSolver.gram(x), 50, 4);
+        Matrix.Pair expected = largestOfFullDecomposition(coMoment, 4);
+
+        assertArrayEquals(diagonal(expected.getFirst()), diagonal(lanczos.getFirst()),
+                1e-9 * expected.getFirst().get(0, 0));
+        assertEigenPairs(coMoment, lanczos, 1e-9);
+        // The two signal components are well separated; the noise ones behind them are not.
+        assertSameComponents(expected.getSecond().getSubMatrix(0, 50, 0, 2),
+                lanczos.getSecond().getSubMatrix(0, 50, 0, 2), 1e-7);
+    }
+
+    @Test
+    void wholeSpectrumIsReturnedWhenTheBasisCoversIt() throws Exception {
+        Matrix a = TestData.randomSymmetric(15, 23);
+        Matrix.Pair lanczos = LanczosSolver.largest(LanczosSolver.of(a), 15, 15);
+
+        assertArrayEquals(diagonal(largestOfFullDecomposition(a, 15).getFirst()), diagonal(lanczos.getFirst()), 1e-10);
+        assertEigenPairs(a, lanczos, 1e-10);
+    }
+
+    @Test
+    void fitLanczosMatchesTheFullFit() throws Exception {
+        Matrix x = TestData.samples(200, 64, 24);
+        PCA full = new PCA(64);
+        full.fit(x, 4, Matrix.EigenMethod.TRIDIAGONAL_QL);
+        PCA lanczos = new PCA(64);
+        lanczos.fitLanczos(x, 4);
+        PCA routed = new PCA(64);
+        routed.fit(x, 4);
+
+        assertSameComponents(full.v, lanczos.v, 1e-7);
+        assertArrayEquals(full.getEigenvalues(), lanczos.getEigenvalues(), 1e-9 * full.getEigenvalues()[0]);
+        TestData.assertMatrixEquals(full.avg, lanczos.avg, 1e-12);
+        assertSameComponents(lanczos.v, routed.v, 0);
+    }
+
+    @Test
+    void iterationThatNeverConvergesFails() {
+        // Not a linear operator at all, so no Ritz pair ever settles.
+        Random random = new Random(25);
+        LanczosSolver.Operator noise = x -> {
+            double[] y = new double[x.length];
+            for (int i = 0; i < y.length; i++) {
+                y[i] = random.nextGaussian();
+            }
+            return y;
+        };
+
+        assertThrows(ArithmeticException.class, () -> LanczosSolver.largest(noise, 100, 2));
+    }
+
+    @Test
+    void invalidCountIsRejected() {
+        Matrix a = TestData.randomSymmetric(5, 26);
+        assertThrows(IllegalArgumentException.class, () -> LanczosSolver.largest(LanczosSolver.of(a), 5, 0));
+        assertThrows(IllegalArgumentException.class, () -> LanczosSolver.largest(LanczosSolver.of(a), 5, 6));
+    }
+}
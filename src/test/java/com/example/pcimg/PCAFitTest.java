@@ -0,0 +1,236 @@
+package com.example.pcimg;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static com.example.pcimg.TestData.assertMatrixEquals;
+import static com.example.pcimg.TestData.assertSameComponents;
+
+/**
+ * Compares the alternative fit modes of {@link PCA} with the full covariance decomposition of
+ * {@link PCA#fit(Matrix, int, Matrix.EigenMethod)}.
+ */
+class PCAFitTest {
+
+    private static PCA baseline(Matrix x, int k) throws Exception {
+        PCA pca = new PCA(x.getWidth());
+        pca.fit(x, k, Matrix.EigenMethod.TRIDIAGONAL_QL);
+        return pca;
+    }
+
+    private static void assertSameModel(PCA expected, PCA actual, double tolerance) {
+        // The batch fits scale their mean by a float reciprocal, good to about 1e-8 relative.
+        assertMatrixEquals(expected.avg, actual.avg, 1e-6);
+        assertSameComponents(expected.v, actual.v, tolerance);
+        double scale = expected.getEigenvalues()[0];
+        assertArrayEquals(expected.getEigenvalues(), actual.getEigenvalues(), tolerance * scale);
+    }
+
+    @Test
+    void randomizedFitIsExactForLowRankData() throws Exception {
+        Matrix x = TestData.lowRank(150, 60, 5, 31);
+        PCA randomized = new PCA(60);
+        randomized.fitRandomized(x, 5);
+
+        assertSameModel(baseline(x, 5), randomized, 1e-8);
+    }
+
+    @Test
+    void randomizedFitFindsTheLeadingComponentsOfNoisyData() throws Exception {
+        Matrix x = TestData.samples(300, 80, 32);
+        PCA expected = baseline(x, 2);
+        PCA randomized = new PCA(80);
+        randomized.fitRandomized(x, 2);
+        PCA withoutPowerIterations = new PCA(80);
+        withoutPowerIterations.fitRandomized(x, 2, 10, 0);
+
+        assertSameModel(expected, randomized, 1e-6);
+        assertSameModel(expected, withoutPowerIterations, 1e-3);
+    }
+
+    @Test
+    void rangeFinderBasisIsOrthonormalForRankDeficientInput() {
+        // X^T X Q for rank-3 data: 12 columns, only 3 of them independent, at a large scale.
+        Matrix x = TestData.lowRank(80, 40, 3, 35);
+        Matrix q = Matrix.qr(x.syrk().dot(TestData.randomSymmetric(40, 36).getSubMatrix(0, 40, 0, 12))).getFirst();
+
+        assertMatrixEquals(Matrix.eye(12), q.transpose().dot(q), 1e-12);
+    }
+
+    @Test
+    void randomizedFitIsDeterministic() {
+        Matrix x = TestData.samples(100, 40, 33);
+        PCA first = new PCA(40);
+        first.fitRandomized(x, 3);
+        PCA second = new PCA(40);
+        second.fitRandomized(x, 3);
+
+        assertMatrixEquals(first.v, second.v, 0);
+    }
+
+    @Test
+    void snapshotFitMatchesTheFullFitForWideData() throws Exception {
+        Matrix x = TestData.lowRank(40, 120, 6, 41);
+        PCA snapshot = new PCA(120);
+        snapshot.fitSnapshot(x, 6);
+        assertSameModel(baseline(x, 6), snapshot, 1e-8);
+
+        Matrix noisy = TestData.samples(50, 150, 42);
+        PCA noisySnapshot = new PCA(150);
+        noisySnapshot.fitSnapshot(noisy, 2);
+        assertSameModel(baseline(noisy, 2), noisySnapshot, 1e-8);
+    }
+
+    @Test
+    void fitRoutesWideDataToTheSnapshotMethod() throws Exception {
+        Matrix x = TestData.samples(30, 90, 43);
+        PCA snapshot = new PCA(90);
+        snapshot.fitSnapshot(x, 4);
+        PCA routed = new PCA(90);
+        routed.fit(x, 4);
+
+        assertMatrixEquals(snapshot.v, routed.v, 0);
+        assertArrayEquals(snapshot.getEigenvalues(), routed.getEigenvalues(), 0);
+    }
+
+    @Test
+    void snapshotComponentsBeyondTheRankAreZero() {
+        Matrix x = TestData.lowRank(20, 60, 3, 44);
+        PCA snapshot = new PCA(60);
+        snapshot.fitSnapshot(x, 25);
+
+        double[] variances = snapshot.getEigenvalues();
+        assertEquals(25, variances.length);
+        for (int c = 0; c < 25; c++) {
+            double norm = snapshot.v.getC(c).norm();
+            if (c < 3) {
+                assertEquals(1, norm, 1e-12, "component " + c);
+            } else {
+                assertEquals(0, norm, 0, "component " + c);
+                assertEquals(0, variances[c], 1e-9 * variances[0], "variance " + c);
+            }
+        }
+    }
+
+    private static PCA incremental(Matrix x, int k, int... batches) {
+        PCA pca = new PCA(x.getWidth());
+        int row = 0;
+        for (int b : batches) {
+            pca.partialFit(x.getSubMatrix(row, b, 0, x.getWidth()), k);
+            row += b;
+        }
+        assertEquals(x.getHeight(), row);
+        pca.finish();
+        return pca;
+    }
+
+    @Test
+    void incrementalFitIsExactForLowRankData() throws Exception {
+        Matrix x = TestData.lowRank(200, 40, 4, 61);
+        PCA pca = incremental(x, 4, 30, 1, 50, 19, 100);
+
+        assertEquals(200, pca.getSamplesSeen());
+        assertSameModel(baseline(x, 4), pca, 1e-8);
+    }
+
+    @Test
+    void incrementalModelChangesOnlyOnFinish() {
+        Matrix x = TestData.samples(120, 30, 62);
+        PCA pca = new PCA(30);
+        pca.partialFit(x.getSubMatrix(0, 60, 0, 30), 5);
+        pca.finish();
+        Matrix v = pca.v;
+        Matrix avg = pca.avg;
+        double[] eigenvalues = pca.getEigenvalues();
+        long modelId = pca.getModelId();
+
+        pca.partialFit(x.getSubMatrix(60, 60, 0, 30));
+        assertMatrixEquals(v, pca.v, 0);
+        assertMatrixEquals(avg, pca.avg, 0);
+        assertArrayEquals(eigenvalues, pca.getEigenvalues(), 0);
+        assertEquals(modelId, pca.getModelId());
+        assertEquals(60, pca.getSamplesSeen());
+
+        pca.finish();
+        assertEquals(120, pca.getSamplesSeen());
+        assertEquals(5, pca.v.getWidth());
+        assertMatrixEquals(incremental(x, 5, 60, 60).v, pca.v, 0);
+    }
+
+    @Test
+    void batchFitReplacesTheIncrementalState() throws Exception {
+        Matrix x = TestData.samples(100, 30, 63);
+        Matrix batch = TestData.samples(40, 30, 64);
+        PCA pca = incremental(x, 3, 50, 50);
+        pca.fit(x, 3, Matrix.EigenMethod.TRIDIAGONAL_QL);
+        assertEquals(0, pca.getSamplesSeen());
+
+        // The next batch replaces the one-pass model, instead of continuing the earlier updates.
+        pca.partialFit(batch, 3);
+        pca.finish();
+        PCA fresh = new PCA(30);
+        fresh.partialFit(batch, 3);
+        fresh.finish();
+        assertEquals(40, pca.getSamplesSeen());
+        assertMatrixEquals(fresh.v, pca.v, 0);
+        assertMatrixEquals(fresh.avg, pca.avg, 0);
+    }
+
+    private static FrequentDirections sketch(Matrix x, int size) {
+        FrequentDirections sketch = new FrequentDirections(x.getWidth(), size);
+        for (int i = 0; i < x.getHeight(); i++) {
+            sketch.add(x.getR(i).toRowMajorArray());
+        }
+        return sketch;
+    }
+
+    @Test
+    void frequentDirectionsFitIsExactWhenTheSketchCoversTheRank() throws Exception {
+        Matrix x = TestData.lowRank(300, 50, 4, 71);
+        FrequentDirections sketch = sketch(x, 10);
+        assertEquals(0, sketch.getErrorBound(), 1e-9 * sketch.getFrobeniusNormSquared());
+        PCA pca = new PCA(50);
+        pca.fit(sketch, 4);
+
+        assertSameModel(baseline(x, 4), pca, 1e-7);
+    }
+
+    @Test
+    void frequentDirectionsVariancesStayWithinTheErrorBound() throws Exception {
+        Matrix x = TestData.samples(500, 40, 72);
+        FrequentDirections sketch = sketch(x, 12);
+        PCA pca = new PCA(40);
+        pca.fit(sketch, 4);
+        double[] expected = baseline(x, 4).getEigenvalues();
+        double[] actual = pca.getEigenvalues();
+
+        double bound = sketch.getErrorBound() / (500 - 1);
+        assertTrue(sketch.getErrorBound() <= sketch.getFrobeniusNormSquared() / 12);
+        for (int c = 0; c < 4; c++) {
+            double tolerance = 1e-9 * expected[0];
+            assertTrue(actual[c] <= expected[c] + tolerance, "component " + c + " overestimated");
+            assertTrue(actual[c] >= expected[c] - bound - tolerance, "component " + c + " beyond the bound");
+        }
+        // The two signal components are far above the bound, so their directions are kept.
+        assertSameComponents(baseline(x, 2).v, pca.v.getSubMatrix(0, 40, 0, 2), 1e-3);
+    }
+
+    @Test
+    void frequentDirectionsNeedsMoreRowsThanComponents() {
+        FrequentDirections sketch = sketch(TestData.samples(30, 20, 73), 5);
+        assertThrows(IllegalArgumentException.class, () -> new PCA(20).fit(sketch, 5));
+    }
+
+    @Test
+    void invalidRandomizedParametersAreRejected() {
+        Matrix x = TestData.samples(20, 10, 34);
+        PCA pca = new PCA(10);
+        assertThrows(IllegalArgumentException.class, () -> pca.fitRandomized(x, 0));
+        assertThrows(IllegalArgumentException.class, () -> pca.fitRandomized(x, 11));
+        assertThrows(IllegalArgumentException.class, () -> pca.fitRandomized(x, 2, -1, 2));
+        assertThrows(IllegalArgumentException.class, () -> pca.fitRandomized(x, 2, 10, -1));
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.pcimg;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static com.example.pcimg.TestData.assertMatrixEquals;
+
+/**
+ * Round trips of the binary model format written by {@link PCA#saveToFile(String, BinaryDataset.DataType)}.
+ */
+class PCAModelFileTest {
+
+    private static final int FEATURES = 48;
+    private static final int COMPONENTS = 5;
+
+    @TempDir
+    Path dir;
+
+    private static Matrix samples(int rows, long seed) {
+        return TestData.samples(rows, FEATURES, seed);
+    }
+
+    private static PCA fitted() {
+        return TestData.fitted(FEATURES, COMPONENTS);
+    }
+
+    private String file(String name) {
+        return dir.resolve(name).toString();
+    }
+
+    private String save(PCA pca, String name) throws IOException {
+        pca.saveToFile(file(name));
+        return file(name);
+    }
+
+    @Test
+    void float64RoundTripIsExact() throws Exception {
+        PCA pca = fitted();
+        pca.saveToFile(file("model.pcmd"));
+        PCA loaded = PCA.loadFromFile(file("model.pcmd"));
+
+        assertMatrixEquals(pca.avg, loaded.avg, 0);
+        assertMatrixEquals(pca.v, loaded.v, 0);
+        assertArrayEquals(pca.getEigenvalues(), loaded.getEigenvalues());
+        Matrix x = samples(3, 2);
+        assertMatrixEquals(pca.encode(x), loaded.encode(x), 1e-9);
+    }
+
+    @Test
+    void float32StoresComponentsInSinglePrecision() throws Exception {
+        PCA pca = fitted();
+        pca.saveToFile(file("model64.pcmd"), BinaryDataset.DataType.FLOAT64);
+        pca.saveToFile(file("model32.pcmd"), BinaryDataset.DataType.FLOAT32);
+        long headerAndVectors = PCA.MODEL_HEADER_BYTES + 8L * (FEATURES + COMPONENTS);
+        assertEquals(headerAndVectors + 4L * FEATURES * COMPONENTS, Files.size(dir.resolve("model32.pcmd")));
+        assertEquals(headerAndVectors + 8L * FEATURES * COMPONENTS, Files.size(dir.resolve("model64.pcmd")));
+
+        PCA loaded = PCA.loadFromFile(file("model32.pcmd"));
+        assertMatrixEquals(pca.avg, loaded.avg, 0);
+        assertMatrixEquals(pca.v, loaded.v, 1e-7);
+        assertArrayEquals(pca.getEigenvalues(), loaded.getEigenvalues());
+    }
+
+    @Test
+    void legacySerializedModelIsStillLoaded() throws Exception {
+        PCA pca = fitted();
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file("legacy.ser")))) {
+            out.writeObject(pca);
+        }
+        PCA loaded = PCA.loadFromFile(file("legacy.ser"));
+
+        assertMatrixEquals(pca.avg, loaded.avg, 0);
+        assertMatrixEquals(pca.v, loaded.v, 0);
+        Matrix x = samples(6, 3);
+        assertMatrixEquals(pca.encode(x), loaded.encode(x), 1e-9);
+    }
+
+    @Test
+    void unfittedModelRoundTrips() throws Exception {
+        new PCA(FEATURES).saveToFile(file("empty.pcmd"));
+        PCA loaded = PCA.loadFromFile(file("empty.pcmd"));
+
+        assertNull(loaded.v);
+        assertNull(loaded.getEigenvalues());
+        assertMatrixEquals(Matrix.zeros(1, FEATURES), loaded.avg, 0);
+        assertEquals(0, loaded.getSamplesSeen());
+    }
+
+    @Test
+    void partialFitResumesAfterReload() throws Exception {
+        Matrix first = samples(40, 4);
+        Matrix second = samples(40, 5);
+
+        PCA uninterrupted = new PCA(FEATURES);
+        uninterrupted.partialFit(first, COMPONENTS);
+        uninterrupted.partialFit(second, COMPONENTS);
+        uninterrupted.finish();
+
+        PCA saved = new PCA(FEATURES);
+        saved.partialFit(first, COMPONENTS);
+        saved.finish();
+        saved.saveToFile(file("partial.pcmd"));
+        PCA resumed = PCA.loadFromFile(file("partial.pcmd"));
+        assertEquals(40, resumed.getSamplesSeen());
+        resumed.partialFit(second, COMPONENTS);
+        resumed.finish();
+
+        assertEquals(80, resumed.getSamplesSeen());
+        assertMatrixEquals(uninterrupted.avg, resumed.avg, 1e-12);
+        assertMatrixEquals(uninterrupted.v, resumed.v, 1e-9);
+        assertArrayEquals(uninterrupted.getEigenvalues(), resumed.getEigenvalues(), 1e-9);
+    }
+
+    @Test
+    void pendingBatchIsNotSavedWithThePublishedModel() throws Exception {
+        Matrix first = samples(40, 7);
+        Matrix second = samples(40, 8);
+        Matrix third = samples(40, 9);
+
+        PCA uninterrupted = new PCA(FEATURES);
+        for (Matrix batch : new Matrix[]{first, second, third}) {
+            uninterrupted.partialFit(batch, COMPONENTS);
+        }
+        uninterrupted.finish();
+
+        PCA saved = new PCA(FEATURES);
+        saved.partialFit(first, COMPONENTS);
+        saved.finish();
+        PCA published = PCA.loadFromFile(save(saved, "published.pcmd"));
+        saved.partialFit(second, COMPONENTS);
+        PCA loaded = PCA.loadFromFile(save(saved, "pending.pcmd"));
+
+        assertEquals(40, loaded.getSamplesSeen());
+        assertMatrixEquals(published.avg, loaded.avg, 0);
+        assertMatrixEquals(published.v, loaded.v, 0);
+        assertArrayEquals(published.getEigenvalues(), loaded.getEigenvalues());
+        loaded.partialFit(second, COMPONENTS);
+        loaded.partialFit(third, COMPONENTS);
+        loaded.finish();
+        assertEquals(120, loaded.getSamplesSeen());
+        assertMatrixEquals(uninterrupted.avg, loaded.avg, 1e-12);
+        assertMatrixEquals(uninterrupted.v, loaded.v, 1e-9);
+        assertArrayEquals(uninterrupted.getEigenvalues(), loaded.getEigenvalues(), 1e-9);
+    }
+
+    @Test
+    void batchFittedModelIsNotSavedAsIncremental() throws Exception {
+        PCA pca = new PCA(FEATURES);
+        pca.partialFit(samples(40, 10), COMPONENTS);
+        pca.finish();
+        pca.fitLanczos(samples(200, 11), COMPONENTS);
+        String filename = save(pca, "batch.pcmd");
+
+        // Header, mean, eigenvalues and components; no singular values.
+        long expected = PCA.MODEL_HEADER_BYTES + 8L * (FEATURES + COMPONENTS) + 8L * FEATURES * COMPONENTS;
+        assertEquals(expected, Files.size(Path.of(filename)));
+        assertEquals(0, PCA.loadFromFile(filename).getSamplesSeen());
+    }
+
+    @Test
+    void modelIdSurvivesSavingInEitherPrecision() throws Exception {
+        PCA pca = fitted();
+        Matrix x = samples(1, 6);
+        EncodedImage image = EncodedImage.quantize(pca.encode(x), 4, 4, pca, EncodedImage.Quantization.INT16);
+        for (BinaryDataset.DataType type : BinaryDataset.DataType.values()) {
+            pca.saveToFile(file(type + ".pcmd"), type);
+            PCA loaded = PCA.loadFromFile(file(type + ".pcmd"));
+
+            assertEquals(pca.getModelId(), loaded.getModelId(), type.toString());
+            assertMatrixEquals(image.dequantize(pca), image.dequantize(loaded), 0);
+        }
+    }
+
+    @Test
+    void modelIdFollowsReplacedComponents() {
+        PCA pca = fitted();
+        long id = pca.getModelId();
+        pca.v = pca.v.getSubMatrix(0, FEATURES, 0, COMPONENTS - 1);
+
+        assertNotEquals(id, pca.getModelId());
+    }
+
+    @Test
+    void truncatedModelIsRejected() throws Exception {
+        fitted().saveToFile(file("model.pcmd"));
+        byte[] bytes = Files.readAllBytes(dir.resolve("model.pcmd"));
+        Files.write(dir.resolve("truncated.pcmd"), Arrays.copyOf(bytes, bytes.length - 8));
+
+        assertThrows(IOException.class, () -> PCA.loadFromFile(file("truncated.pcmd")));
+    }
+}
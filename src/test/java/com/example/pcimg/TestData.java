@@ -0,0 +1,155 @@
+package com.example.pcimg;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Sample data, fitted models and matrix assertions shared by the tests.
+ */
+final class TestData {
+
+    private TestData() {
+    }
+
+    /**
+     * Returns pixel-like samples: a sine of random phase across the features, plus unit noise.
+     * The data is dominated by two components, with a spread-out noise spectrum behind them.
+     *
+     * @param rows     the number of samples
+     * @param features the number of features
+     * @param seed     the random seed
+     * @return a rows x features matrix
+     */
+    static Matrix samples(int rows, int features, long seed) {
+        Random random = new Random(seed);
+        Matrix x = new Matrix(rows, features);
+        for (int i = 0; i < rows; i++) {
+            double phase = random.nextDouble() * 6;
+            for (int j = 0; j < features; j++) {
+                x.set(i, j, 128 + 60 * Math.sin(phase + j * 0.15) + random.nextGaussian());
+            }
+        }
+        return x;
+    }
+
+    /**
+     * Returns samples of exact rank {@code rank} around a nonzero mean, with well separated singular
+     * values, so that every method that keeps at least {@code rank} components recovers them exactly.
+     *
+     * @param rows     the number of samples
+     * @param features the number of features
+     * @param rank     the number of directions the centered samples span
+     * @param seed     the random seed
+     * @return a rows x features matrix
+     */
+    static Matrix lowRank(int rows, int features, int rank, long seed) {
+        Random random = new Random(seed);
+        double[][] directions = new double[rank][features];
+        for (double[] direction : directions) {
+            for (int j = 0; j < features; j++) {
+                direction[j] = random.nextGaussian();
+            }
+        }
+        Matrix x = new Matrix(rows, features);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < features; j++) {
+                x.set(i, j, 10 + j % 7);
+            }
+            for (int r = 0; r < rank; r++) {
+                double weight = random.nextGaussian() * 20 / (r + 1);
+                for (int j = 0; j < features; j++) {
+                    x.set(i, j, x.get(i, j) + weight * directions[r][j]);
+                }
+            }
+        }
+        return x;
+    }
+
+    /**
+     * Returns a model fitted with {@link PCA#fitLanczos(Matrix, int)} to 300 {@link #samples}, so it
+     * has eigenvalues as well as components.
+     *
+     * @param features   the number of features
+     * @param components the number of components to keep
+     * @return the fitted model
+     */
+    static PCA fitted(int features, int components) {
+        PCA pca = new PCA(features);
+        pca.fitLanczos(samples(300, features, 1), components);
+        return pca;
+    }
+
+    /**
+     * Returns a random symmetric matrix {@code B + B^T} with Gaussian {@code B}.
+     *
+     * @param n    the matrix order
+     * @param seed the random seed
+     * @return an n x n symmetric matrix
+     */
+    static Matrix randomSymmetric(int n, long seed) {
+        Random random = new Random(seed);
+        Matrix a = new Matrix(n, n);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double value = random.nextGaussian();
+                a.set(i, j, value);
+                a.set(j, i, value);
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Asserts that the columns of {@code pair.getSecond()} are orthonormal eigenvectors of {@code a}
+     * for the diagonal of {@code pair.getFirst()}: {@code |A v - lambda v| <= tolerance * |A|}.
+     */
+    static void assertEigenPairs(Matrix a, Matrix.Pair pair, double tolerance) {
+        Matrix values = pair.getFirst();
+        Matrix vectors = pair.getSecond();
+        int n = a.getHeight();
+        int k = vectors.getWidth();
+        assertEquals(n, vectors.getHeight(), "eigenvector length");
+        double scale = Math.max(1, a.norm());
+        for (int i = 0; i < k; i++) {
+            double[] v = vectors.getC(i).toRowMajorArray();
+            double[] av = a.dot(v);
+            double residual = 0;
+            for (int r = 0; r < n; r++) {
+                double d = av[r] - values.get(i, i) * v[r];
+                residual += d * d;
+            }
+            assertEquals(0, Math.sqrt(residual), tolerance * scale, "residual of eigenpair " + i);
+        }
+        assertMatrixEquals(Matrix.eye(k), vectors.transpose().dot(vectors), 1e-10);
+    }
+
+    /**
+     * Asserts that two component matrices have the same columns up to sign, as eigenvectors are only
+     * defined up to sign.
+     */
+    static void assertSameComponents(Matrix expected, Matrix actual, double tolerance) {
+        assertEquals(expected.getHeight(), actual.getHeight(), "height");
+        assertEquals(expected.getWidth(), actual.getWidth(), "width");
+        for (int c = 0; c < expected.getWidth(); c++) {
+            double dot = 0;
+            for (int i = 0; i < expected.getHeight(); i++) {
+                dot += expected.get(i, c) * actual.get(i, c);
+            }
+            double sign = dot < 0 ? -1 : 1;
+            for (int i = 0; i < expected.getHeight(); i++) {
+                assertEquals(expected.get(i, c), sign * actual.get(i, c), tolerance, "component " + c + ", element " + i);
+            }
+        }
+    }
+
+    static void assertMatrixEquals(Matrix expected, Matrix actual, double tolerance) {
+        assertEquals(expected.getHeight(), actual.getHeight(), "height");
+        assertEquals(expected.getWidth(), actual.getWidth(), "width");
+        for (int i = 0; i < expected.getHeight(); i++) {
+            for (int j = 0; j < expected.getWidth(); j++) {
+                assertEquals(expected.get(i, j), actual.get(i, j), tolerance, "element " + i + "," + j);
+            }
+        }
+    }
+}